@@ -26,13 +26,31 @@ public class BasicErrorReport implements ErrorReport {
     private final List<Tuple> unexpectedTuples = new ArrayList<Tuple>();
     private final List<TupleMatcher> missingMatchers = new ArrayList<TupleMatcher>();
     private final String header;
+    private final int messageLimit;
+    
+    /**
+     * the default number of characters of each message section, beyond which
+     * tuples are elided.
+     */
+    public static final int DEFAULT_MESSAGE_LIMIT = 256 * 1024;
     
     /**
      * Create an empty error report.
      * @param header  A human readable header to preface the error message
      */
     public BasicErrorReport(String header) {
+        this(header, DEFAULT_MESSAGE_LIMIT);
+    }
+    
+    /**
+     * Create an empty error report.
+     * @param header  A human readable header to preface the error message
+     * @param messageLimit  The number of characters of each message section
+     *                      beyond which tuples are elided
+     */
+    public BasicErrorReport(String header, int messageLimit) {
         this.header = header;
+        this.messageLimit = messageLimit;
     }
 
     @Override
@@ -74,16 +92,22 @@ public class BasicErrorReport implements ErrorReport {
 
     @Override
     public void throwIfError(ExtraTuples extra) throws AssertionError {
-        if (missingMatchers.size() > 0) {
-            throw new ExpectTuplesFailure(this);
-        } 
-        if (extra == ExtraTuples.ERROR && unexpectedTuples.size() > 0) {
+        if (hasErrors(extra)) {
             throw new ExpectTuplesFailure(this);
         } 
     }
     
+    /**
+     * get whether {@link #throwIfError(ExtraTuples)} would throw
+     */
+    boolean hasErrors(ExtraTuples extra) {
+        return missingMatchers.size() > 0 
+                || (extra == ExtraTuples.ERROR && unexpectedTuples.size() > 0);
+    }
+    
     @Override
     public String getMessage() {
+        // each section is already limited
         StringBuilder sb = new StringBuilder(this.header);
         
         String missing = makeMissingMessage();
@@ -122,15 +146,18 @@ public class BasicErrorReport implements ErrorReport {
      * error message should override this method. 
      */
     protected String makeMissingMessage() {
-        StringBuilder sb = new StringBuilder();
-        if (!missingMatchers.isEmpty()) { 
-            Gson gson = new Gson();
-            JsonElement e = missingMatchers.get(0).describe(gson);
-            sb.append(gson.toJson(e));
-            for (int i = 1; i < missingMatchers.size(); ++i) {
-                e = missingMatchers.get(i).describe(gson);
-                sb.append("\n").append(gson.toJson(e));
+        LimitedAppendable sb = new LimitedAppendable(messageLimit);
+        Gson gson = new Gson();
+        for (int i = 0; i < missingMatchers.size(); ++i) {
+            if (sb.isFull()) {
+                sb.elided(missingMatchers.size() - i);
+                break;
             }
+            if (i > 0) {
+                sb.append("\n");
+            }
+            JsonElement e = missingMatchers.get(i).describe(gson);
+            sb.append(gson.toJson(e));
         }
         return sb.toString();
     }
@@ -140,15 +167,7 @@ public class BasicErrorReport implements ErrorReport {
      * error message should override this method. 
      */
     protected String makeUnexpectedMessage() {
-        StringBuilder sb = new StringBuilder();
-        if (!unexpectedTuples.isEmpty()) { 
-            sb.append(formatTupleForMessage(unexpectedTuples.get(0)));
-            for (int i = 1; i < unexpectedTuples.size(); ++i) {
-                sb.append("\n");
-                sb.append(formatTupleForMessage(unexpectedTuples.get(i)));
-            }
-        }
-        return sb.toString();
+        return makeTuplesMessage(unexpectedTuples);
     }
     
     /**
@@ -156,13 +175,20 @@ public class BasicErrorReport implements ErrorReport {
      * error message should override this method. 
      */
     protected String makeFoundMessage() {
-        StringBuilder sb = new StringBuilder();
-        if (!foundTuples.isEmpty()) { 
-            sb.append(formatTupleForMessage(foundTuples.get(0)));
-            for (int i = 1; i < foundTuples.size(); ++i) {
+        return makeTuplesMessage(foundTuples);
+    }
+    
+    private String makeTuplesMessage(List<Tuple> tuples) {
+        LimitedAppendable sb = new LimitedAppendable(messageLimit);
+        for (int i = 0; i < tuples.size(); ++i) {
+            if (sb.isFull()) {
+                sb.elided(tuples.size() - i);
+                break;
+            }
+            if (i > 0) {
                 sb.append("\n");
-                sb.append(formatTupleForMessage(foundTuples.get(i)));
             }
+            sb.append(formatTupleForMessage(tuples.get(i)));
         }
         return sb.toString();
     }
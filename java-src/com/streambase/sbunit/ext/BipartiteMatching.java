@@ -0,0 +1,198 @@
+package com.streambase.sbunit.ext;
+
+import java.util.Arrays;
+
+/**
+ * {@link BipartiteMatching} maintains a maximum matching between arriving tuples
+ * and the matchers they could satisfy.
+ * <p>
+ * Tuples are added with the positions of every matcher they match.  After a batch of
+ * tuples is added, {@link #augment()} runs Hopcroft-Karp phases rooted at the newly
+ * added tuples that are still unmatched.  Tuples that could not be matched before
+ * can never be matched by adding more tuples, so only new tuples need to be roots,
+ * and the graph that has already been built is never rebuilt.
+ */
+class BipartiteMatching {
+    private static final int[] NO_EDGES = new int[0];
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final int[] matcherMatch;
+    private int[][] edges = new int[16][];
+    private int[] tupleMatch = new int[16];
+    private int numTuples = 0;
+    private int firstNew = 0;
+    private int numMatched = 0;
+
+    // per-phase bookkeeping, reused across phases by stamping
+    private int[] layer = new int[16];
+    private int[] cursor = new int[16];
+    private int[] stamp = new int[16];
+    private int phase = 0;
+    private int[] queue = new int[16];
+    private int[] stack = new int[16];
+
+    BipartiteMatching(int numMatchers) {
+        matcherMatch = new int[numMatchers];
+        Arrays.fill(matcherMatch, -1);
+    }
+
+    /**
+     * add a tuple which matches the matchers at the given positions.
+     * @return the id of the tuple within this matching
+     */
+    int addTuple(int[] matchers) {
+        if (numTuples == edges.length) {
+            int size = numTuples * 2;
+            edges = Arrays.copyOf(edges, size);
+            tupleMatch = Arrays.copyOf(tupleMatch, size);
+            layer = Arrays.copyOf(layer, size);
+            cursor = Arrays.copyOf(cursor, size);
+            stamp = Arrays.copyOf(stamp, size);
+            queue = Arrays.copyOf(queue, size);
+            stack = Arrays.copyOf(stack, size);
+        }
+        int id = numTuples++;
+        edges[id] = matchers.length == 0 ? NO_EDGES : matchers;
+        tupleMatch[id] = -1;
+
+        // most tuples have an obvious free matcher; save the phases for the hard ones
+        for (int m : matchers) {
+            if (matcherMatch[m] < 0) {
+                link(id, m);
+                break;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * grow the matching until no tuple added since the last call can be matched.
+     */
+    void augment() {
+        while (runPhase()) {
+            // keep going until a phase finds no augmenting paths
+        }
+        firstNew = numTuples;
+    }
+
+    /**
+     * get the position of the matcher assigned to a tuple, or -1 if it has none.
+     */
+    int matcherFor(int tuple) {
+        return tupleMatch[tuple];
+    }
+
+    /**
+     * get whether a matcher has been assigned to a tuple.
+     */
+    boolean isMatched(int matcher) {
+        return matcherMatch[matcher] >= 0;
+    }
+
+    int size() {
+        return numMatched;
+    }
+
+    int tupleCount() {
+        return numTuples;
+    }
+
+    private void link(int tuple, int matcher) {
+        if (tupleMatch[tuple] < 0) {
+            ++numMatched;
+        }
+        tupleMatch[tuple] = matcher;
+        matcherMatch[matcher] = tuple;
+    }
+
+    /**
+     * a single Hopcroft-Karp phase: layer the graph with a breadth first search from
+     * the free new tuples, then find vertex-disjoint augmenting paths along the layers.
+     * @return whether any path was augmented
+     */
+    private boolean runPhase() {
+        ++phase;
+        int head = 0;
+        int tail = 0;
+        for (int t = firstNew; t < numTuples; ++t) {
+            if (tupleMatch[t] < 0 && edges[t].length > 0) {
+                visit(t, 0);
+                queue[tail++] = t;
+            }
+        }
+        if (tail == 0) {
+            return false;
+        }
+        int roots = tail;
+
+        int shortest = UNREACHED;
+        while (head < tail) {
+            int t = queue[head++];
+            if (layer[t] >= shortest) {
+                break;
+            }
+            for (int m : edges[t]) {
+                int owner = matcherMatch[m];
+                if (owner < 0) {
+                    shortest = layer[t] + 1;
+                } else if (stamp[owner] != phase) {
+                    visit(owner, layer[t] + 1);
+                    queue[tail++] = owner;
+                }
+            }
+        }
+        if (shortest == UNREACHED) {
+            return false;
+        }
+
+        boolean augmented = false;
+        for (int i = 0; i < roots; ++i) {
+            int root = queue[i];
+            if (tupleMatch[root] < 0 && findPath(root, shortest)) {
+                augmented = true;
+            }
+        }
+        return augmented;
+    }
+
+    private void visit(int tuple, int depth) {
+        stamp[tuple] = phase;
+        layer[tuple] = depth;
+        cursor[tuple] = 0;
+    }
+
+    /**
+     * an iterative depth first search along the layers, so long augmenting paths
+     * cannot overflow the stack.
+     */
+    private boolean findPath(int root, int shortest) {
+        int depth = 0;
+        stack[depth++] = root;
+        while (depth > 0) {
+            int t = stack[depth - 1];
+            int[] e = edges[t];
+            if (cursor[t] == e.length) {
+                // dead end for the rest of this phase
+                layer[t] = UNREACHED;
+                --depth;
+                continue;
+            }
+
+            int m = e[cursor[t]++];
+            int owner = matcherMatch[m];
+            if (owner < 0) {
+                if (layer[t] + 1 == shortest) {
+                    // flip every edge along the path, from the free matcher back to the root
+                    for (int i = depth - 1; i >= 0; --i) {
+                        int pt = stack[i];
+                        link(pt, edges[pt][cursor[pt] - 1]);
+                    }
+                    return true;
+                }
+            } else if (stamp[owner] == phase && layer[owner] == layer[t] + 1) {
+                stack[depth++] = owner;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,162 @@
+package com.streambase.sbunit.ext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.streambase.sb.Tuple;
+import com.streambase.sbunit.ext.StreamMatcher.ExtraTuples;
+
+/**
+ * A read-only view of the reports of several streams, as produced by
+ * {@link MultiStreamMatcher#verify()}.  Each stream keeps its own report, available
+ * from {@link #getReports()}; the messages are those of each report in turn and the
+ * lists are their concatenation.
+ * <p>
+ * It is not an {@link ErrorReport} itself, since nothing can be added to it.
+ */
+public class CompositeErrorReport {
+    private final List<ErrorReport> reports;
+    private final List<ExtraTuples> extras;
+
+    /**
+     * @param reports  the report of each stream
+     * @param extras  how each stream treats unexpected tuples, in the same order
+     */
+    public CompositeErrorReport(List<ErrorReport> reports, List<ExtraTuples> extras) {
+        if (reports.size() != extras.size()) {
+            throw new IllegalArgumentException("reports and extras must be the same size");
+        }
+        this.reports = Collections.unmodifiableList(new ArrayList<ErrorReport>(reports));
+        this.extras = Collections.unmodifiableList(new ArrayList<ExtraTuples>(extras));
+    }
+
+    /**
+     * get the report of each stream
+     */
+    public List<ErrorReport> getReports() {
+        return reports;
+    }
+
+    /**
+     * get the tuple matchers that matched successfully on every stream
+     */
+    public List<TupleMatcher> getFoundMatchers() {
+        List<TupleMatcher> res = new ArrayList<TupleMatcher>();
+        for (ErrorReport r : reports) {
+            res.addAll(r.getFoundMatchers());
+        }
+        return res;
+    }
+
+    /**
+     * get the tuples that matched successfully on every stream
+     */
+    public List<Tuple> getFoundTuples() {
+        List<Tuple> res = new ArrayList<Tuple>();
+        for (ErrorReport r : reports) {
+            res.addAll(r.getFoundTuples());
+        }
+        return res;
+    }
+
+    /**
+     * get the tuple matchers that failed to match on every stream
+     */
+    public List<TupleMatcher> getMissingMatchers() {
+        List<TupleMatcher> res = new ArrayList<TupleMatcher>();
+        for (ErrorReport r : reports) {
+            res.addAll(r.getMissingMatchers());
+        }
+        return res;
+    }
+
+    /**
+     * get the tuples that arrived unexpectedly on every stream
+     */
+    public List<Tuple> getUnexpectedTuples() {
+        List<Tuple> res = new ArrayList<Tuple>();
+        for (ErrorReport r : reports) {
+            res.addAll(r.getUnexpectedTuples());
+        }
+        return res;
+    }
+
+    /**
+     * get whether the report of any stream contains errors, treating unexpected
+     * tuples as that stream does.
+     */
+    public boolean isError() {
+        return getFirstError() != null;
+    }
+
+    /**
+     * get the report of the first stream that contains errors, or <code>null</code>
+     * if none does
+     */
+    public ErrorReport getFirstError() {
+        for (int i = 0; i < reports.size(); ++i) {
+            if (Reports.hasErrors(reports.get(i), extras.get(i))) {
+                return reports.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * throw an error that summarizes the reports if the report of any stream contains
+     * errors, treating unexpected tuples as that stream does.  If none does, the
+     * reports are closed, as nothing will render them.
+     */
+    public void throwIfError() throws MultiStreamFailure {
+        ErrorReport first = getFirstError();
+        if (first != null) {
+            throw new MultiStreamFailure(this, first);
+        }
+        for (ErrorReport r : reports) {
+            ExpectTuplesFailure.close(r);
+        }
+    }
+
+    /**
+     * get the messages of each report in turn
+     */
+    public String getMessage() {
+        StringBuilder sb = new StringBuilder();
+        for (ErrorReport r : reports) {
+            if (sb.length() > 0) {
+                sb.append("\n\n");
+            }
+            sb.append(r.getMessage());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * get the expected messages of each report in turn
+     */
+    public String getExpectedMessage() {
+        StringBuilder sb = new StringBuilder();
+        for (ErrorReport r : reports) {
+            if (sb.length() > 0) {
+                sb.append("\n");
+            }
+            sb.append(r.getExpectedMessage());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * get the actual messages of each report in turn
+     */
+    public String getActualMessage() {
+        StringBuilder sb = new StringBuilder();
+        for (ErrorReport r : reports) {
+            if (sb.length() > 0) {
+                sb.append("\n");
+            }
+            sb.append(r.getActualMessage());
+        }
+        return sb.toString();
+    }
+}
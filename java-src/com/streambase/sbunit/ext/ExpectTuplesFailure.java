@@ -1,5 +1,8 @@
 package com.streambase.sbunit.ext;
 
+import java.io.Closeable;
+import java.io.IOException;
+
 import org.junit.ComparisonFailure;
 
 /**
@@ -15,22 +18,82 @@ import org.junit.ComparisonFailure;
  * {@link ComparisonFailure} is not used directly, as it does not allow a 
  * custom message, but will instead build a message itself.  We override that
  * behavior here.
+ * <p>
+ * The messages are only rendered when one of them is first asked for, so a failure 
+ * that is caught and discarded never pays for formatting the tuples in its report.
+ * All three are rendered then, after which a report that is {@link Closeable} is 
+ * closed.
  */
 @SuppressWarnings("serial")
 public class ExpectTuplesFailure extends ComparisonFailure {
     
     private final ErrorReport report;
+    private String message = null;
+    private String expected = null;
+    private String actual = null;
 
     public ExpectTuplesFailure(ErrorReport report) {
-        super(report.getMessage(), report.getExpectedMessage(), report.getActualMessage());
+        super(null, null, null);
         this.report = report;
     }
     
     @Override
-    public String getMessage() {
+    public synchronized String getMessage() {
+        render();
+        return message;
+    }
+    
+    @Override
+    public synchronized String getExpected() {
+        render();
+        return expected;
+    }
+    
+    @Override
+    public synchronized String getActual() {
+        render();
+        return actual;
+    }
+    
+    private void render() {
+        if (message != null) {
+            return;
+        }
+        message = renderMessage();
+        expected = renderExpected();
+        actual = renderActual();
+        release();
+    }
+    
+    String renderMessage() {
         return report.getMessage();
     }
     
+    String renderExpected() {
+        return report.getExpectedMessage();
+    }
+    
+    String renderActual() {
+        return report.getActualMessage();
+    }
+    
+    /**
+     * called once the messages are rendered, to close the report if it is closeable
+     */
+    void release() {
+        close(report);
+    }
+    
+    static void close(ErrorReport report) {
+        if (report instanceof Closeable) {
+            try {
+                ((Closeable) report).close();
+            } catch (IOException e) {
+                // the messages are already rendered
+            }
+        }
+    }
+    
     /**
      * get the report that caused this failure
      */
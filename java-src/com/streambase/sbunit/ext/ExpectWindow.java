@@ -0,0 +1,262 @@
+package com.streambase.sbunit.ext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.streambase.sb.StreamBaseException;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.unittest.Dequeuer;
+import com.streambase.sbunit.ext.StreamMatcher.ExtraTuples;
+
+/**
+ * {@link ExpectWindow} decides how long a single expect call waits for tuples.
+ * <p>
+ * With a fixed timeout every dequeue waits until the deadline.  With an automatic
+ * timeout the stream is drained first, and the window closes on the first empty
+ * dequeue.  With a quiescence timeout the window tracks how long the stream takes
+ * between arrivals, and closes once it has been quiet for a multiple of the 99th
+ * percentile of those gaps, or when the deadline passes.
+ * <p>
+ * A dequeue of n tuples blocks until all n arrive, so a sliced window dequeues in 
+ * waits of at most {@link #PROBE_MILLIS} and sees each arrival soon after it 
+ * happens.  Quiescent windows are always sliced, and subclasses that must check
+ * each arrival promptly slice by overriding {@link #isSliced()}.
+ * <p>
+ * When prefetching, tuples are dequeued by a {@link Prefetcher} and batches are
+ * returned as soon as any tuples are available, so the window stays open until the
+ * deadline even when extra tuples are errors.  Windows must be closed.
+ * <p>
+ * Subclasses see every tuple dequeued by overriding {@link #dequeue(int, boolean, long)}.
+ */
+class ExpectWindow {
+    enum Mode {
+        FIXED,
+        AUTOMATIC,
+        QUIESCENT
+    }
+
+    /**
+     * the multiple of the 99th percentile gap that is considered quiet by default
+     */
+    static final double DEFAULT_QUIET_FACTOR = 4.0;
+
+    /**
+     * the shortest quiet period that is ever trusted
+     */
+    static final long MIN_QUIET_MILLIS = 5;
+
+    /**
+     * how long a stream may be quiet before anything has arrived
+     */
+    static final long INITIAL_QUIET_MILLIS = 1000;
+
+    /**
+     * the longest single wait of a sliced window
+     */
+    static final long PROBE_MILLIS = 10;
+
+    private static final int MAX_SAMPLES = 256;
+
+    private final Dequeuer dequeuer;
+    private final Mode mode;
+    private final double quietFactor;
+    private final ExtraTuples extras;
+    private final long timeoutMillis;
+    private long finish;
+    private final Prefetcher prefetcher;
+    private final MatchListener listener;
+    private final String stream;
+    private boolean started = false;
+
+    // most recent gaps between arrivals, in nanoseconds
+    private final long[] gaps = new long[MAX_SAMPLES];
+    private int numGaps = 0;
+    private long lastArrival;
+    private long quietMillis = INITIAL_QUIET_MILLIS;
+
+    /**
+     * @param extras  whether the caller is ignoring extra tuples
+     * @param prefetchCapacity  the size of the prefetch buffer, or 0 to dequeue directly
+     * @param listener  told about each dequeue, or <code>null</code>
+     */
+    ExpectWindow(Dequeuer dequeuer, Mode mode, long timeoutMillis, double quietFactor, 
+            ExtraTuples extras, int prefetchCapacity, MatchListener listener) throws StreamBaseException {
+        this.dequeuer = dequeuer;
+        this.mode = mode;
+        this.quietFactor = quietFactor;
+        this.extras = extras;
+        this.timeoutMillis = timeoutMillis;
+        this.listener = listener;
+        this.stream = listener != null ? dequeuer.getStreamProperties().getPath() : null;
+        if (mode == Mode.AUTOMATIC) {
+            dequeuer.drain();
+        }
+        this.finish = System.currentTimeMillis() + timeoutMillis;
+        this.lastArrival = System.nanoTime();
+        this.prefetcher = prefetchCapacity > 0 
+                ? new Prefetcher(dequeuer, prefetchCapacity, mode == Mode.AUTOMATIC)
+                : null;
+    }
+
+    /**
+     * dequeue up to n tuples.
+     * @return the tuples, or <code>null</code> if the window has closed
+     */
+    List<Tuple> next(int n) throws StreamBaseException {
+        // extras that are errors never earn another dequeue
+        return next(n, !started || extras == ExtraTuples.IGNORE);
+    }
+
+    /**
+     * dequeue up to n tuples, allowing n more to be prefetched if <code>grant</code>
+     * is set, for callers where every tuple so far has used up an expected one.
+     * @return the tuples, or <code>null</code> if the window has closed
+     */
+    List<Tuple> next(int n, boolean grant) throws StreamBaseException {
+        List<Tuple> actual;
+        if (prefetcher == null && isSliced()) {
+            actual = sliced(n);
+        } else {
+            long wait = Math.max(remainingMillis(), 0);
+            // a prefetcher in automatic mode finishes by itself once the stream is empty
+            actual = dequeue(n, grant, prefetcher != null && mode == Mode.AUTOMATIC ? -1 : wait);
+            if (mode == Mode.QUIESCENT && actual != null) {
+                arrived(actual.size(), System.nanoTime());
+            }
+        }
+        if (actual == null || (actual.isEmpty() && mode != Mode.FIXED)) {
+            return null;
+        }
+        started = true;
+        return actual;
+    }
+
+    /**
+     * get whether to dequeue in slices of at most {@link #PROBE_MILLIS}, when not
+     * prefetching.
+     */
+    boolean isSliced() {
+        return mode == Mode.QUIESCENT;
+    }
+
+    /**
+     * dequeue in slices until n tuples have arrived, or the window is due to close.
+     * There is always at least one dequeue, so a window with no time left still
+     * takes the tuples that are already available.
+     */
+    private List<Tuple> sliced(int n) throws StreamBaseException {
+        List<Tuple> res = new ArrayList<Tuple>();
+        do {
+            long wait = Math.min(Math.max(remainingMillis(), 0), PROBE_MILLIS);
+            List<Tuple> batch = dequeue(n < 0 ? n : n - res.size(), true, wait);
+            res.addAll(batch);
+            if (mode == Mode.QUIESCENT) {
+                arrived(batch.size(), System.nanoTime());
+            }
+        } while ((n < 0 || res.size() < n) && remainingMillis() > 0);
+        return res;
+    }
+
+    /**
+     * get how long until the window is due to close, which is negative once it is
+     */
+    private long remainingMillis() {
+        long remaining = finish - System.currentTimeMillis();
+        if (mode == Mode.QUIESCENT) {
+            long quiet = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastArrival);
+            remaining = Math.min(remaining, quietMillis - quiet);
+        }
+        return remaining;
+    }
+
+    /**
+     * dequeue up to n tuples that are already available, without waiting.  Only 
+     * windows that do not prefetch can be polled.
+     * @return the tuples, possibly none
+     */
+    List<Tuple> poll(int n) throws StreamBaseException {
+        if (prefetcher != null) {
+            throw new IllegalStateException("a prefetching window cannot be polled");
+        }
+        return dequeue(n, true, 0);
+    }
+
+    /**
+     * move the deadline to the timeout from now, for callers that give each wait a
+     * timeout of its own.
+     */
+    void restart() {
+        finish = System.currentTimeMillis() + timeoutMillis;
+    }
+
+    /**
+     * dequeue up to n tuples, waiting at most waitMillis, or while prefetching until
+     * the prefetcher finishes if it is negative.
+     * @return the tuples, or <code>null</code> if the prefetcher has finished
+     */
+    List<Tuple> dequeue(int n, boolean grant, long waitMillis) throws StreamBaseException {
+        long began = System.nanoTime();
+        List<Tuple> actual;
+        if (prefetcher != null) {
+            if (grant) {
+                prefetcher.request(n);
+            }
+            actual = prefetcher.take(n, waitMillis);
+        } else {
+            actual = dequeuer.dequeue(n, Math.max(waitMillis, 0), TimeUnit.MILLISECONDS);
+        }
+        if (listener != null) {
+            listener.dequeued(stream, actual == null ? 0 : actual.size(), System.nanoTime() - began);
+        }
+        return actual;
+    }
+
+    /**
+     * get whether another dequeue should be attempted when tuples are still missing.
+     */
+    boolean isOpen() {
+        if (prefetcher != null) {
+            // next() returns null once nothing more can arrive
+            return true;
+        }
+        switch (mode) {
+        case AUTOMATIC:
+            return extras == ExtraTuples.IGNORE;
+        case QUIESCENT:
+            // shorter waits mean a dequeue can return before all tuples arrive
+            return System.currentTimeMillis() <= finish;
+        default:
+            return extras == ExtraTuples.IGNORE && System.currentTimeMillis() <= finish;
+        }
+    }
+
+    /**
+     * stop any background dequeuing.
+     */
+    void close() throws StreamBaseException {
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+    }
+
+    private void arrived(int tuples, long now) {
+        if (tuples == 0) {
+            return;
+        }
+        // the wait for the first arrival counts, so slow streams start with long waits,
+        // and tuples seen by one dequeue are taken to have arrived evenly through it
+        long gap = (now - lastArrival) / tuples;
+        for (int i = 0; i < Math.min(tuples, MAX_SAMPLES); ++i) {
+            gaps[numGaps % MAX_SAMPLES] = gap;
+            ++numGaps;
+        }
+        lastArrival = now;
+
+        long[] sorted = Arrays.copyOf(gaps, Math.min(numGaps, MAX_SAMPLES));
+        Arrays.sort(sorted);
+        long p99 = sorted[(int) Math.ceil(sorted.length * 0.99) - 1];
+        quietMillis = Math.max(MIN_QUIET_MILLIS, (long) Math.ceil(quietFactor * p99 / 1e6));
+    }
+}
@@ -0,0 +1,138 @@
+package com.streambase.sbunit.ext;
+
+/**
+ * A histogram of latencies in nanoseconds, with buckets whose width grows with the
+ * value so that every recorded value is kept to within about 0.2%, from a nanosecond
+ * up to {@link Long#MAX_VALUE}, in a fixed amount of memory.
+ * <p>
+ * Values below 1024 each have their own bucket.  Above that, every power of two is
+ * split into 512 buckets of equal width.  Percentiles report the highest value of
+ * the bucket they fall in, so they never understate a latency.
+ * <p>
+ * {@link LatencyHistogram}s are not thread safe.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 10;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private final long[] counts = new long[SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS];
+    private long count = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+    private double sum = 0;
+
+    /**
+     * record a single latency.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("latency must not be negative");
+        }
+        ++counts[indexOf(nanos)];
+        ++count;
+        min = Math.min(min, nanos);
+        max = Math.max(max, nanos);
+        sum += nanos;
+    }
+
+    /**
+     * add all the latencies recorded by another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        sum += other.sum;
+    }
+
+    /**
+     * get the number of latencies recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * get the smallest latency recorded, or 0 if there are none
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * get the largest latency recorded, or 0 if there are none
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * get the mean of the latencies recorded, or 0 if there are none
+     */
+    public double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * get the latency that the given percentage of recorded latencies are at or
+     * below, or 0 if there are none.
+     * @param percentile  between 0 and 100
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("count=").append(count);
+        sb.append(" min=").append(getMin());
+        sb.append(" mean=").append(Math.round(getMean()));
+        sb.append(" p50=").append(getValueAtPercentile(50));
+        sb.append(" p90=").append(getValueAtPercentile(90));
+        sb.append(" p99=").append(getValueAtPercentile(99));
+        sb.append(" p99.9=").append(getValueAtPercentile(99.9));
+        sb.append(" max=").append(max);
+        sb.append(" (ns)");
+        return sb.toString();
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // shift so the value keeps SUB_BUCKET_BITS significant bits
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long sub = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        long lowest = sub << shift;
+        long highest = lowest + (1L << shift) - 1;
+        // the top bucket would overflow
+        return highest < lowest ? Long.MAX_VALUE : highest;
+    }
+}
@@ -0,0 +1,280 @@
+package com.streambase.sbunit.ext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.streambase.sb.DataType;
+import com.streambase.sb.StreamBaseException;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+import com.streambase.sb.unittest.Dequeuer;
+import com.streambase.sb.unittest.Enqueuer;
+import com.streambase.sbunit.ext.StreamMatcher.ExtraTuples;
+
+/**
+ * {@link LatencyTracker} measures how long tuples take to pass through an application.
+ * Each tuple enqueued through the tracker has a correlation field set to a unique id,
+ * and a background thread drains the output stream, recording the time until a tuple
+ * carrying the same id comes out in a {@link LatencyHistogram}.  For example:
+ * <p>
+ * <pre>
+ * LatencyTracker tracker = StreamMatcher.on(dequeuer)
+ *          .timeout(5, TimeUnit.SECONDS)
+ *          .latencyTracker(enqueuer, "id");
+ * tracker.start();
+ * tracker.enqueue(tuples);
+ * tracker.expectLatency(99, 5, TimeUnit.MILLISECONDS);
+ * tracker.stop();
+ * </pre>
+ * <p>
+ * The correlation field must be an int, long or string field of both streams, and
+ * the application must copy it from input to output.  Output tuples are stamped when
+ * the tracker dequeues them, so latencies include up to a dequeue's worth of delay.
+ */
+public class LatencyTracker {
+    private static final long POLL_MILLIS = 100;
+
+    private final Dequeuer dequeuer;
+    private final Enqueuer enqueuer;
+    private final String field;
+    private final ExtraTuples extras;
+    private final long timeoutMillis;
+    private final ErrorReportFactory reportFactory;
+
+    private final Map<Long, Long> pending = new HashMap<Long, Long>();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final List<Tuple> unexpectedTuples = new ArrayList<Tuple>();
+    private DataType idType = null;
+    private long unexpected = 0;
+    private long nextId = 0;
+    private StreamBaseException error = null;
+    private volatile boolean running = false;
+    private Thread thread = null;
+
+    LatencyTracker(Dequeuer dequeuer, Enqueuer enqueuer, String field, ExtraTuples extras,
+            long timeoutMillis, ErrorReportFactory reportFactory) {
+        this.dequeuer = dequeuer;
+        this.enqueuer = enqueuer;
+        this.field = field;
+        this.extras = extras;
+        this.timeoutMillis = timeoutMillis;
+        this.reportFactory = reportFactory;
+    }
+
+    /**
+     * start draining the output stream on a background thread.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("LatencyTracker has already been started");
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "LatencyTracker " + dequeuer.getStreamProperties().getPath());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * stop draining the output stream, waiting for the background thread to finish.
+     */
+    public void stop() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            notifyAll();
+        }
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    /**
+     * set the correlation field of each tuple to a new id and enqueue them, timing
+     * each from just before it is enqueued.  The tuples are modified in place.
+     */
+    public void enqueue(Tuple... tuples) throws StreamBaseException {
+        for (Tuple t : tuples) {
+            long id;
+            synchronized (this) {
+                id = nextId++;
+            }
+            stamp(t, id);
+            synchronized (this) {
+                pending.put(id, System.nanoTime());
+            }
+            enqueuer.enqueue(t);
+        }
+    }
+
+    /**
+     * enqueue each of the tuples as {@link #enqueue(Tuple...)} does
+     */
+    public void enqueue(List<Tuple> tuples) throws StreamBaseException {
+        enqueue(tuples.toArray(new Tuple[tuples.size()]));
+    }
+
+    /**
+     * get a copy of the latencies recorded so far
+     */
+    public synchronized LatencyHistogram getHistogram() {
+        LatencyHistogram res = new LatencyHistogram();
+        res.add(histogram);
+        return res;
+    }
+
+    /**
+     * get the number of enqueued tuples that have not come out yet
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Wait for every tuple enqueued so far to come out, then fail unless the given
+     * percentile of their latencies is at most <code>max</code>.
+     * @param percentile  between 0 and 100, for example 99 for the 99th percentile
+     * @throws StreamBaseException if an internal error occurs
+     * @throws AssertionError if tuples did not come out within the timeout, unexpected
+     *         tuples came out, or the latency is too high
+     */
+    public void expectLatency(double percentile, long max, TimeUnit unit)
+            throws StreamBaseException, AssertionError, InterruptedException {
+        LatencyHistogram h;
+        synchronized (this) {
+            if (thread == null) {
+                throw new IllegalStateException("LatencyTracker has not been started");
+            }
+            long finish = System.currentTimeMillis() + timeoutMillis;
+            long now = System.currentTimeMillis();
+            while (!pending.isEmpty() && running && error == null && now <= finish) {
+                wait(Math.min(POLL_MILLIS, finish - now + 1));
+                now = System.currentTimeMillis();
+            }
+            if (error != null) {
+                throw new StreamBaseException(error);
+            }
+            makeErrorReport(percentile, max, unit).throwIfError(extras);
+            h = getHistogram();
+        }
+
+        long actual = h.getValueAtPercentile(percentile);
+        if (actual > unit.toNanos(max)) {
+            throw new AssertionError(String.format(
+                    "On %s the %s latency was %.3f milliseconds, more than %d %s: %s",
+                    dequeuer.getStreamProperties().getPath(), formatPercentile(percentile),
+                    actual / 1e6, max, unit.toString().toLowerCase(), h));
+        }
+    }
+
+    private void drainLoop() {
+        try {
+            while (running) {
+                List<Tuple> actual = dequeuer.dequeue(1, POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (actual.isEmpty()) {
+                    continue;
+                }
+                long now = System.nanoTime();
+                // take everything else already waiting, stamped with the same time
+                actual.addAll(dequeuer.dequeue(-1, 0, TimeUnit.MILLISECONDS));
+                synchronized (this) {
+                    for (Tuple a : actual) {
+                        Long sent = pending.remove(idOf(a));
+                        if (sent != null) {
+                            histogram.record(Math.max(now - sent, 0));
+                        } else if (unexpected++ < StreamVerifier.MAX_REPORTED_FAILURES) {
+                            unexpectedTuples.add(a);
+                        }
+                    }
+                    notifyAll();
+                }
+            }
+        } catch (StreamBaseException e) {
+            synchronized (this) {
+                error = e;
+                running = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private void stamp(Tuple t, long id) throws TupleException {
+        DataType type = t.getSchema().getField(field).getDataType();
+        synchronized (this) {
+            idType = type;
+        }
+        if (type == DataType.INT) {
+            t.setField(field, (int) id);
+        } else if (type == DataType.LONG) {
+            t.setField(field, id);
+        } else if (type == DataType.STRING) {
+            t.setField(field, Long.toString(id));
+        } else {
+            throw new IllegalArgumentException("correlation field " + field
+                    + " must be an int, long or string, not " + type);
+        }
+    }
+
+    /**
+     * get the id carried by an output tuple, or null if it doesn't carry one
+     */
+    private Long idOf(Tuple t) {
+        try {
+            Object val = t.getField(field);
+            if (val instanceof Integer || val instanceof Long) {
+                return ((Number) val).longValue();
+            } else if (val instanceof String) {
+                return Long.valueOf((String) val);
+            }
+        } catch (TupleException e) {
+            // no such field
+        } catch (NumberFormatException e) {
+            // not one of ours
+        }
+        return null;
+    }
+
+    private ErrorReport makeErrorReport(double percentile, long max, TimeUnit unit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("On ").append(dequeuer.getStreamProperties().getPath());
+        sb.append(" expecting the ").append(formatPercentile(percentile));
+        sb.append(" latency to be at most ").append(max);
+        sb.append(" ").append(unit.toString().toLowerCase());
+        if (extras == ExtraTuples.IGNORE) {
+            sb.append(" ignoring extra tuples");
+        }
+        sb.append(" with each tuple within ").append(timeoutMillis).append(" milliseconds");
+        if (unexpected > StreamVerifier.MAX_REPORTED_FAILURES) {
+            sb.append(" (first ").append(StreamVerifier.MAX_REPORTED_FAILURES)
+                    .append(" of ").append(unexpected).append(" unexpected tuples shown)");
+        }
+        sb.append(':');
+
+        ErrorReport report = reportFactory.newErrorReport(sb.toString());
+        for (Tuple t : unexpectedTuples) {
+            report.addUnexpectedTuple(t);
+        }
+        for (Long id : pending.keySet()) {
+            Object val = idType == DataType.INT ? (Object) id.intValue() 
+                    : idType == DataType.STRING ? (Object) id.toString() 
+                    : (Object) id;
+            report.addMissingMatcher(Matchers.emptyFieldMatcher().require(field, val));
+        }
+        return report;
+    }
+
+    private static String formatPercentile(double percentile) {
+        if (percentile == Math.rint(percentile)) {
+            return "p" + (long) percentile;
+        }
+        return "p" + percentile;
+    }
+}
@@ -0,0 +1,83 @@
+package com.streambase.sbunit.ext;
+
+/**
+ * An {@link Appendable} that stops accepting text once it holds a fixed number
+ * of characters.  {@link ErrorReport}s use it to keep failure messages for large
+ * streams readable, checking {@link #isFull()} before formatting each tuple so the
+ * tuples that would be dropped are never formatted at all.
+ */
+public class LimitedAppendable implements Appendable {
+    private final StringBuilder sb = new StringBuilder();
+    private final int limit;
+    private boolean truncated = false;
+
+    /**
+     * @param limit  the most characters that will be kept, not counting
+     *               {@link #elided(long)} markers
+     */
+    public LimitedAppendable(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        this.limit = limit;
+    }
+
+    @Override
+    public LimitedAppendable append(CharSequence csq) {
+        if (csq == null) {
+            csq = "null";
+        }
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public LimitedAppendable append(CharSequence csq, int start, int end) {
+        if (csq == null) {
+            csq = "null";
+        }
+        int room = limit - sb.length();
+        if (end - start > room) {
+            end = start + Math.max(room, 0);
+            truncated = true;
+        }
+        sb.append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public LimitedAppendable append(char c) {
+        if (sb.length() < limit) {
+            sb.append(c);
+        } else {
+            truncated = true;
+        }
+        return this;
+    }
+
+    /**
+     * get whether the limit has been reached, so further text would be dropped
+     */
+    public boolean isFull() {
+        return truncated || sb.length() >= limit;
+    }
+
+    /**
+     * append a marker noting that <code>n</code> tuples were left out, regardless
+     * of the limit.
+     */
+    public LimitedAppendable elided(long n) {
+        if (truncated) {
+            sb.append("...");
+        }
+        if (sb.length() > 0) {
+            sb.append("\n");
+        }
+        sb.append("... ").append(n).append(n == 1 ? " more tuple elided" : " more tuples elided");
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+}
@@ -0,0 +1,35 @@
+package com.streambase.sbunit.ext;
+
+/**
+ * {@link MatchListener}s are told where a {@link StreamMatcher} spends its time
+ * within expect*() calls, for example to feed dashboards.  Each stream is named by
+ * its path.
+ * <p>
+ * Listeners may be called from several threads at once, for example when verifying
+ * several streams with a {@link MultiStreamMatcher}.
+ */
+public interface MatchListener {
+
+    /**
+     * called after each attempt to dequeue a batch of tuples.
+     * @param tuples  the number of tuples dequeued, possibly 0
+     * @param nanos  the time spent waiting for them
+     */
+    public void dequeued(String stream, int tuples, long nanos);
+
+    /**
+     * called after each batch of tuples has been matched.
+     * @param tuples  the number of tuples in the batch
+     * @param matcherInvocations  the number of times a {@link TupleMatcher} was called
+     * @param nanos  the time spent matching the batch, including recording
+     *               the outcome of each tuple in the {@link ErrorReport}
+     */
+    public void evaluated(String stream, int tuples, long matcherInvocations, long nanos);
+
+    /**
+     * called once the {@link ErrorReport} of an expect*() call is complete.
+     * @param missing  the number of missing matchers added to the report at the end
+     * @param nanos  the time spent adding them
+     */
+    public void reported(String stream, int missing, long nanos);
+}
@@ -0,0 +1,308 @@
+package com.streambase.sbunit.ext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.streambase.sb.Timestamp;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+import com.streambase.sbunit.ext.matchers.CompiledTupleMatcher;
+import com.streambase.sbunit.ext.matchers.FieldBasedTupleMatcher;
+import com.streambase.sbunit.ext.matchers.value.EqualsValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.NullValueMatcher;
+
+/**
+ * {@link MatcherIndex} narrows down which of a set of {@link TupleMatcher}s an
+ * arriving tuple needs to be checked against when matching without regard to order.
+ * <p>
+ * {@link FieldBasedTupleMatcher}s that require literal values for the most commonly
+ * required fields are bucketed by those values, so a tuple is only checked against
+ * the bucket for its own values.  All other matchers are kept in a list that every
+ * tuple is checked against.  Candidates are always checked in their original order,
+ * so the result is identical to a linear scan of the matchers.
+ * <p>
+ * The index shares the matcher array it was built from; callers remove a matcher
+ * by setting its slot to <code>null</code>.  Empty slots at the end of the array
+ * can be filled in later and added with {@link #add(int)}, which indexes them by
+ * the fields chosen when the index was built.
+ */
+class MatcherIndex {
+    /**
+     * returned by {@link #literalOf(TupleMatcher, String)} when the matcher does not
+     * require a hashable literal value for the field.
+     */
+    static final Object NO_LITERAL = new Object();
+
+    private final TupleMatcher[] matchers;
+    private final String[] keyFields;
+    private final Map<List<Object>, Positions> buckets = new HashMap<List<Object>, Positions>();
+    private final Positions unindexed = new Positions();
+    private long invocations = 0;
+
+    MatcherIndex(TupleMatcher[] matchers) {
+        this.matchers = matchers;
+        this.keyFields = chooseKeyFields(matchers);
+
+        for (int i = 0; i < matchers.length; ++i) {
+            if (matchers[i] != null) {
+                add(i);
+            }
+        }
+    }
+
+    /**
+     * index the matcher at pos, which must be after every matcher indexed so far.
+     */
+    void add(int pos) {
+        List<Object> key = keyOf(matchers[pos]);
+        if (key == null) {
+            unindexed.add(pos);
+        } else {
+            Positions bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new Positions();
+                buckets.put(key, bucket);
+            }
+            bucket.add(pos);
+        }
+    }
+
+    /**
+     * find the first remaining matcher that matches t.
+     * @return the position of the matcher, or -1 if nothing matches
+     */
+    int find(Tuple t) throws TupleException {
+        if (keyFields.length == 0) {
+            return unindexed.find(t, null);
+        }
+
+        List<Object> key;
+        try {
+            key = keyOf(t);
+        } catch (TupleException e) {
+            // let the matchers themselves decide how to handle an odd tuple
+            return findLinear(t);
+        }
+        return unindexed.find(t, buckets.get(key));
+    }
+
+    /**
+     * get the positions of all remaining matchers that might match t, in ascending order.
+     * Matchers that are not returned are guaranteed not to match.
+     */
+    int[] candidates(Tuple t) {
+        if (keyFields.length == 0) {
+            return unindexed.merge(null);
+        }
+
+        List<Object> key;
+        try {
+            key = keyOf(t);
+        } catch (TupleException e) {
+            int[] all = new int[matchers.length];
+            int n = 0;
+            for (int i = 0; i < matchers.length; ++i) {
+                if (matchers[i] != null) {
+                    all[n++] = i;
+                }
+            }
+            return Arrays.copyOf(all, n);
+        }
+        return unindexed.merge(buckets.get(key));
+    }
+
+    /**
+     * get the number of times {@link #find(Tuple)} has called a matcher
+     */
+    long getInvocations() {
+        return invocations;
+    }
+
+    private List<Object> keyOf(Tuple t) throws TupleException {
+        List<Object> key = new ArrayList<Object>(keyFields.length);
+        for (String f : keyFields) {
+            key.add(t.getField(f));
+        }
+        return key;
+    }
+
+    private int findLinear(Tuple t) throws TupleException {
+        for (int i = 0; i < matchers.length; ++i) {
+            TupleMatcher m = matchers[i];
+            if (m != null) {
+                ++invocations;
+                if (m.matches(t)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private List<Object> keyOf(TupleMatcher m) {
+        if (keyFields.length == 0) {
+            return null;
+        }
+        List<Object> key = new ArrayList<Object>(keyFields.length);
+        for (String f : keyFields) {
+            Object val = literalOf(m, f);
+            if (val == NO_LITERAL) {
+                return null;
+            }
+            key.add(val);
+        }
+        return key;
+    }
+
+    /**
+     * pick the fields that are required to be literals by the largest number of matchers
+     */
+    private static String[] chooseKeyFields(TupleMatcher[] matchers) {
+        Map<String, Integer> coverage = new LinkedHashMap<String, Integer>();
+        for (TupleMatcher m : matchers) {
+            FieldBasedTupleMatcher fields = fieldsOf(m);
+            if (fields != null) {
+                for (String f : fields.getFieldMatchers().keySet()) {
+                    if (literalOf(m, f) != NO_LITERAL) {
+                        Integer c = coverage.get(f);
+                        coverage.put(f, c == null ? 1 : c + 1);
+                    }
+                }
+            }
+        }
+
+        int best = 0;
+        for (int c : coverage.values()) {
+            best = Math.max(best, c);
+        }
+
+        List<String> res = new ArrayList<String>();
+        for (Map.Entry<String, Integer> e : coverage.entrySet()) {
+            if (e.getValue() == best) {
+                res.add(e.getKey());
+            }
+        }
+        return res.toArray(new String[res.size()]);
+    }
+
+    /**
+     * get the literal value that m requires for field, or {@link #NO_LITERAL} if
+     * m does not require a single value with a well-behaved hash code.
+     */
+    static Object literalOf(TupleMatcher m, String field) {
+        FieldBasedTupleMatcher fields = fieldsOf(m);
+        if (fields == null) {
+            return NO_LITERAL;
+        }
+        ValueMatcher vm = fields.getFieldMatchers().get(field);
+        if (vm instanceof NullValueMatcher) {
+            return null;
+        }
+        if (vm instanceof EqualsValueMatcher) {
+            Object val = ((EqualsValueMatcher) vm).getExpected();
+            if (val instanceof String || val instanceof Integer || val instanceof Long
+                    || val instanceof Boolean || val instanceof Double || val instanceof Timestamp) {
+                return val;
+            }
+        }
+        return NO_LITERAL;
+    }
+
+    /**
+     * get m as a {@link FieldBasedTupleMatcher}, seeing through compilation, or
+     * <code>null</code> if it is not one.
+     */
+    private static FieldBasedTupleMatcher fieldsOf(TupleMatcher m) {
+        if (m instanceof CompiledTupleMatcher) {
+            m = ((CompiledTupleMatcher) m).getOriginal();
+        }
+        return m instanceof FieldBasedTupleMatcher ? (FieldBasedTupleMatcher) m : null;
+    }
+
+    /**
+     * An ascending list of matcher positions which skips removed matchers.
+     */
+    private class Positions {
+        private int[] items = new int[4];
+        private int size = 0;
+        private int head = 0;
+
+        void add(int pos) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = pos;
+        }
+
+        /**
+         * find the first remaining matcher for t in either this or other,
+         * checking them in their original order.
+         */
+        int find(Tuple t, Positions other) throws TupleException {
+            skipRemoved();
+            int i = head;
+            int j = size;
+            if (other != null) {
+                other.skipRemoved();
+                j = other.head;
+            }
+
+            while (i < size || (other != null && j < other.size)) {
+                int pos;
+                if (other == null || j >= other.size || (i < size && items[i] < other.items[j])) {
+                    pos = items[i++];
+                } else {
+                    pos = other.items[j++];
+                }
+
+                TupleMatcher m = matchers[pos];
+                if (m != null) {
+                    ++invocations;
+                    if (m.matches(t)) {
+                        return pos;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * get the remaining positions in either this or other, in ascending order.
+         */
+        int[] merge(Positions other) {
+            skipRemoved();
+            int otherSize = 0;
+            if (other != null) {
+                other.skipRemoved();
+                otherSize = other.size - other.head;
+            }
+
+            int[] res = new int[size - head + otherSize];
+            int n = 0;
+            int i = head;
+            int j = other == null ? 0 : other.head;
+            while (i < size || (other != null && j < other.size)) {
+                int pos;
+                if (other == null || j >= other.size || (i < size && items[i] < other.items[j])) {
+                    pos = items[i++];
+                } else {
+                    pos = other.items[j++];
+                }
+                if (matchers[pos] != null) {
+                    res[n++] = pos;
+                }
+            }
+            return n == res.length ? res : Arrays.copyOf(res, n);
+        }
+
+        private void skipRemoved() {
+            while (head < size && matchers[items[head]] == null) {
+                ++head;
+            }
+        }
+    }
+}
@@ -9,8 +9,10 @@ import java.util.List;
 import com.streambase.sb.CompleteDataType;
 import com.streambase.sb.DataType;
 import com.streambase.sb.Schema;
+import com.streambase.sb.Timestamp;
 import com.streambase.sb.Tuple;
 import com.streambase.sbunit.ext.matchers.AnythingMatcher;
+import com.streambase.sbunit.ext.matchers.CompiledTupleMatcher;
 import com.streambase.sbunit.ext.matchers.FieldBasedTupleMatcher;
 import com.streambase.sbunit.ext.matchers.NothingMatcher;
 import com.streambase.sbunit.ext.matchers.tuple.AllTupleMatcher;
@@ -18,12 +20,17 @@ import com.streambase.sbunit.ext.matchers.tuple.AnyTupleMatcher;
 import com.streambase.sbunit.ext.matchers.tuple.NotTupleMatcher;
 import com.streambase.sbunit.ext.matchers.value.AllValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.AnyValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.BooleanValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.EqualsValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.IntValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.ListValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.LongValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.NonNullValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.NotValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.NullValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.PrimitiveValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.RatioTestDoubleValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.TimestampValueMatcher;
 
 /**
  * Factory and utility methods for {@link TupleMatcher}
@@ -92,6 +99,17 @@ public class Matchers {
         return new NothingMatcher();
     }
     
+    /**
+     * compile a finished {@link TupleMatcher} so that it is evaluated through one
+     * composed method handle rather than an interface call for every matcher within
+     * it.  This is worthwhile for large verifications, where each matcher is checked
+     * against many tuples.  The compiled matcher matches the same tuples and has the
+     * same description; see {@link CompiledTupleMatcher}.
+     */
+    public static CompiledTupleMatcher compile(TupleMatcher m) {
+        return CompiledTupleMatcher.compile(m);
+    }
+    
     /**
      * create a {@link ValueMatcher} that will match anything non-null
      */
@@ -138,7 +156,8 @@ public class Matchers {
      * a {@link ValueMatcher} that will match the object.
      * <p>
      * NOTE: This method will attempt to do the correct thing, returning
-     * {@link RatioTestDoubleValueMatcher} for doubles and properly trawling
+     * {@link RatioTestDoubleValueMatcher} for doubles, a {@link PrimitiveValueMatcher}
+     * for other primitive types and properly trawling
      * the hierarchy of the provided Object to create a suitably composed
      * {@link ValueMatcher}
      */
@@ -150,7 +169,8 @@ public class Matchers {
      * create a {@link FieldBasedTupleMatcher} that will match the Tuple exactly.
      * <p>
      * NOTE: This method will attempt to do the correct thing, returning
-     * {@link RatioTestDoubleValueMatcher} for doubles and properly trawling
+     * {@link RatioTestDoubleValueMatcher} for doubles, a {@link PrimitiveValueMatcher}
+     * for other primitive types and properly trawling
      * the hierarchy of the provided {@link Tuple} to create a suitably 
      * composed {@link FieldBasedTupleMatcher}
      */
@@ -200,12 +220,28 @@ public class Matchers {
         }
         
         switch (t) {
-        case BLOB:
         case BOOL:
+            if (val instanceof Boolean) {
+                return new BooleanValueMatcher((Boolean) val);
+            }
+            return new EqualsValueMatcher(val);
         case INT:
+            if (val instanceof Integer) {
+                return new IntValueMatcher((Integer) val);
+            }
+            return new EqualsValueMatcher(val);
         case LONG:
-        case STRING:
+            if (val instanceof Long) {
+                return new LongValueMatcher((Long) val);
+            }
+            return new EqualsValueMatcher(val);
         case TIMESTAMP:
+            if (val instanceof Timestamp) {
+                return new TimestampValueMatcher((Timestamp) val);
+            }
+            return new EqualsValueMatcher(val);
+        case BLOB:
+        case STRING:
         case FUNCTION:
             return new EqualsValueMatcher(val);
         case DOUBLE:
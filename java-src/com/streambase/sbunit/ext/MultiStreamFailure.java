@@ -0,0 +1,50 @@
+package com.streambase.sbunit.ext;
+
+/**
+ * The {@link ExpectTuplesFailure} thrown by {@link MultiStreamMatcher#verify()} when
+ * the tuples on any stream do not match.  Its messages are those of every stream's
+ * report in turn, and {@link #getReport()} is the report of the first stream that 
+ * failed.
+ */
+@SuppressWarnings("serial")
+public class MultiStreamFailure extends ExpectTuplesFailure {
+    private final CompositeErrorReport reports;
+
+    /**
+     * @param reports  the reports of every stream
+     * @param first  the report of the first stream that failed
+     */
+    public MultiStreamFailure(CompositeErrorReport reports, ErrorReport first) {
+        super(first);
+        this.reports = reports;
+    }
+
+    /**
+     * get the reports of every stream
+     */
+    public CompositeErrorReport getReports() {
+        return reports;
+    }
+
+    @Override
+    String renderMessage() {
+        return reports.getMessage();
+    }
+
+    @Override
+    String renderExpected() {
+        return reports.getExpectedMessage();
+    }
+
+    @Override
+    String renderActual() {
+        return reports.getActualMessage();
+    }
+
+    @Override
+    void release() {
+        for (ErrorReport r : reports.getReports()) {
+            close(r);
+        }
+    }
+}
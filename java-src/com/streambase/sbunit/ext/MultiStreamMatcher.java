@@ -0,0 +1,134 @@
+package com.streambase.sbunit.ext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.streambase.sb.StreamBaseException;
+import com.streambase.sb.unittest.Dequeuer;
+import com.streambase.sbunit.ext.StreamMatcher.ExtraTuples;
+
+/**
+ * {@link MultiStreamMatcher} verifies several streams at once, each on its own thread,
+ * so a test that checks several output streams waits for the slowest stream rather
+ * than for the sum of all of them.  For example:
+ * <p>
+ * <pre>
+ * StreamMatcher.onAll(trades, alerts)
+ *          .expect(trades, m1, m2)
+ *          .expect(alerts, m3)
+ *          .verify();
+ * </pre>
+ * <p>
+ * Like {@link StreamMatcher}, instances are immutable, and each stream is matched
+ * according to the configuration of its own {@link StreamMatcher}.
+ */
+public class MultiStreamMatcher {
+    private final Map<Dequeuer, StreamMatcher> matchers;
+    private final Map<Dequeuer, List<TupleMatcher>> expected;
+
+    private MultiStreamMatcher(Map<Dequeuer, StreamMatcher> matchers,
+            Map<Dequeuer, List<TupleMatcher>> expected) {
+        this.matchers = matchers;
+        this.expected = expected;
+    }
+
+    /**
+     * Create a {@link MultiStreamMatcher} for the streams of the given
+     * {@link StreamMatcher}s, each of which must be on a different stream.
+     */
+    static MultiStreamMatcher of(List<StreamMatcher> streams) {
+        Map<Dequeuer, StreamMatcher> matchers = new LinkedHashMap<Dequeuer, StreamMatcher>();
+        Map<Dequeuer, List<TupleMatcher>> expected = new LinkedHashMap<Dequeuer, List<TupleMatcher>>();
+        for (StreamMatcher m : streams) {
+            if (matchers.put(m.getDequeuer(), m) != null) {
+                throw new IllegalArgumentException("each stream may only be given once");
+            }
+            expected.put(m.getDequeuer(), Collections.<TupleMatcher>emptyList());
+        }
+        return new MultiStreamMatcher(matchers, expected);
+    }
+
+    /**
+     * Create an identical {@link MultiStreamMatcher} that additionally expects tuples
+     * on the given stream that match each of the given {@link TupleMatcher}s.
+     * @throws IllegalArgumentException if the stream is not one of those being verified
+     */
+    public MultiStreamMatcher expect(Dequeuer dequeuer, TupleMatcher... matchers) {
+        return expect(dequeuer, Arrays.asList(matchers));
+    }
+
+    /**
+     * Create an identical {@link MultiStreamMatcher} that additionally expects tuples
+     * on the given stream that match each of the given {@link TupleMatcher}s.
+     * @throws IllegalArgumentException if the stream is not one of those being verified
+     */
+    public MultiStreamMatcher expect(Dequeuer dequeuer, List<? extends TupleMatcher> matchers) {
+        List<TupleMatcher> prev = expected.get(dequeuer);
+        if (prev == null) {
+            throw new IllegalArgumentException("stream " + dequeuer.getStreamProperties().getPath()
+                    + " is not being verified");
+        }
+        List<TupleMatcher> all = new ArrayList<TupleMatcher>(prev);
+        all.addAll(matchers);
+
+        Map<Dequeuer, List<TupleMatcher>> res = new LinkedHashMap<Dequeuer, List<TupleMatcher>>(expected);
+        res.put(dequeuer, Collections.unmodifiableList(all));
+        return new MultiStreamMatcher(this.matchers, res);
+    }
+
+    /**
+     * Verify every stream concurrently, each against the tuples expected on it.  Streams
+     * with no expectations pass without waiting.
+     * @throws StreamBaseException if an internal error occurs
+     * @throws AssertionError if the tuples on any stream do not match, a
+     *         {@link MultiStreamFailure} with the report of each stream
+     */
+    public void verify() throws StreamBaseException, AssertionError {
+        List<ErrorReport> reports = new ArrayList<ErrorReport>();
+        List<ExtraTuples> extras = new ArrayList<ExtraTuples>();
+        List<Future<ErrorReport>> futures = new ArrayList<Future<ErrorReport>>();
+        try {
+            for (Map.Entry<Dequeuer, StreamMatcher> e : matchers.entrySet()) {
+                final StreamMatcher matcher = e.getValue();
+                final List<TupleMatcher> exp = expected.get(e.getKey());
+                futures.add(StreamMatcher.EXECUTOR.submit(new Callable<ErrorReport>() {
+                    @Override
+                    public ErrorReport call() throws Exception {
+                        return matcher.collect(exp);
+                    }
+                }));
+                extras.add(matcher.getExtras());
+            }
+            for (Future<ErrorReport> f : futures) {
+                reports.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StreamBaseException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof StreamBaseException) {
+                throw new StreamBaseException(cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new StreamBaseException(cause);
+        } finally {
+            // don't leave streams being drained behind an early failure
+            for (Future<ErrorReport> f : futures) {
+                f.cancel(true);
+            }
+        }
+
+        new CompositeErrorReport(reports, extras).throwIfError();
+    }
+}
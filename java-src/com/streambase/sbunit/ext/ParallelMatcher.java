@@ -0,0 +1,194 @@
+package com.streambase.sbunit.ext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+
+/**
+ * {@link ParallelMatcher} finds the first remaining matcher for each tuple of a batch
+ * on a {@link ForkJoinPool}, for use by unordered matching with very many matchers.
+ * <p>
+ * The candidates of each tuple are split into ranges that are searched in parallel
+ * against a snapshot of the remaining matchers, each tuple keeping the first candidate
+ * that matched.  The proposals are then resolved one tuple at a time in arrival order:
+ * a tuple whose matcher was taken by an earlier tuple of the batch carries on scanning
+ * after it.  Matchers are only ever removed, so the result is identical to matching
+ * each tuple in turn with {@link MatcherIndex#find(Tuple)}.
+ */
+class ParallelMatcher {
+    /**
+     * the number of candidates checked by each task
+     */
+    static final int LEAF_SIZE = 256;
+
+    /**
+     * batches with fewer candidates in total are matched on the calling thread
+     */
+    static final int MIN_PARALLEL_CANDIDATES = 4 * LEAF_SIZE;
+
+    /**
+     * the most candidates held for one round of parallel search, to bound memory use
+     */
+    static final int MAX_ROUND_CANDIDATES = 1 << 20;
+
+    private final ForkJoinPool pool;
+    private final TupleMatcher[] matchers;
+    private final int[] counts;
+    private final MatcherIndex index;
+    private final AtomicLong invocations = new AtomicLong();
+
+    /**
+     * @param matchers  the matchers being matched, shared with the index
+     * @param counts  how many times each matcher remains to be found, shared with the caller
+     */
+    ParallelMatcher(ForkJoinPool pool, TupleMatcher[] matchers, int[] counts, MatcherIndex index) {
+        this.pool = pool;
+        this.matchers = matchers;
+        this.counts = counts;
+        this.index = index;
+    }
+
+    /**
+     * get the number of times a matcher has been called
+     */
+    long getInvocations() {
+        return invocations.get();
+    }
+
+    /**
+     * match each tuple of the batch in order, removing the matchers that are found
+     * as often as they were expected.
+     * @return the position of the matcher found for each tuple, or -1 if it matched nothing
+     */
+    int[] matchBatch(List<Tuple> batch) throws TupleException {
+        int[] res = new int[batch.size()];
+        int start = 0;
+        while (start < batch.size()) {
+            // gather a round of tuples whose candidates fit in memory
+            List<Search> round = new ArrayList<Search>();
+            long total = 0;
+            int end = start;
+            while (end < batch.size() && (round.isEmpty() || total < MAX_ROUND_CANDIDATES)) {
+                Search s = new Search(batch.get(end), index.candidates(batch.get(end)));
+                round.add(s);
+                total += s.candidates.length;
+                ++end;
+            }
+
+            if (total >= MIN_PARALLEL_CANDIDATES) {
+                pool.invoke(new Round(round));
+            }
+            for (int i = 0; i < round.size(); ++i) {
+                res[start + i] = round.get(i).resolve(total >= MIN_PARALLEL_CANDIDATES);
+            }
+            start = end;
+        }
+        return res;
+    }
+
+    /**
+     * the search for the first matcher of one tuple.
+     */
+    private class Search {
+        final Tuple tuple;
+        final int[] candidates;
+        // the first candidate found to match or throw, only written under the lock
+        private volatile int first;
+        private TupleException error = null;
+
+        Search(Tuple tuple, int[] candidates) {
+            this.tuple = tuple;
+            this.candidates = candidates;
+            this.first = candidates.length;
+        }
+
+        void search(int lo, int hi) {
+            int j = lo;
+            while (j < hi && j < first) {
+                TupleMatcher m = matchers[candidates[j++]];
+                try {
+                    if (m.matches(tuple)) {
+                        offer(j - 1, null);
+                        break;
+                    }
+                } catch (TupleException e) {
+                    offer(j - 1, e);
+                    break;
+                }
+            }
+            invocations.addAndGet(j - lo);
+        }
+
+        private synchronized void offer(int j, TupleException e) {
+            if (j < first) {
+                first = j;
+                error = e;
+            }
+        }
+
+        /**
+         * take the first remaining matcher of this tuple, given that earlier tuples
+         * may have taken the one found by the search.
+         */
+        int resolve(boolean searched) throws TupleException {
+            int j = searched ? first : 0;
+            if (searched && j < candidates.length && matchers[candidates[j]] != null) {
+                if (error != null) {
+                    throw error;
+                }
+                return take(candidates[j]);
+            }
+            // everything before the search result was checked and did not match
+            for (; j < candidates.length; ++j) {
+                TupleMatcher m = matchers[candidates[j]];
+                if (m != null) {
+                    invocations.incrementAndGet();
+                    if (m.matches(tuple)) {
+                        return take(candidates[j]);
+                    }
+                }
+            }
+            return -1;
+        }
+
+        private int take(int i) {
+            if (--counts[i] == 0) {
+                matchers[i] = null;
+            }
+            return i;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class Round extends RecursiveAction {
+        private final List<Search> searches;
+
+        Round(List<Search> searches) {
+            this.searches = searches;
+        }
+
+        @Override
+        protected void compute() {
+            List<ForkJoinTask<?>> leaves = new ArrayList<ForkJoinTask<?>>();
+            for (final Search s : searches) {
+                for (int lo = 0; lo < s.candidates.length; lo += LEAF_SIZE) {
+                    final int from = lo;
+                    final int to = Math.min(lo + LEAF_SIZE, s.candidates.length);
+                    leaves.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            s.search(from, to);
+                        }
+                    });
+                }
+            }
+            invokeAll(leaves);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.streambase.sbunit.ext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.streambase.sb.StreamBaseException;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.unittest.Dequeuer;
+
+/**
+ * {@link Prefetcher} dequeues tuples on a background thread into a {@link RingBuffer},
+ * so that the thread that opened it can match one batch while the next is arriving.
+ * <p>
+ * The consumer grants a limit on the total number of tuples that may be dequeued, and
+ * only raises it as it learns it needs more, so tuples meant for a later expect call
+ * are never taken off the stream.
+ */
+class Prefetcher {
+    private static final long POLL_MILLIS = 10;
+
+    private final Dequeuer dequeuer;
+    private final boolean untilEmpty;
+    private final RingBuffer<Tuple> ring;
+    private final Thread consumer;
+    private final Thread producer;
+
+    // written by the consumer
+    private volatile long limit = 0;
+    private volatile boolean closed = false;
+    private long delivered = 0;
+
+    // written by the producer
+    private volatile boolean finished = false;
+    private volatile StreamBaseException error = null;
+    private long dequeued = 0;
+
+    /**
+     * @param untilEmpty  whether to stop at the first dequeue that finds no tuples,
+     *                    rather than waiting for more until closed
+     */
+    Prefetcher(Dequeuer dequeuer, int capacity, boolean untilEmpty) {
+        this.dequeuer = dequeuer;
+        this.untilEmpty = untilEmpty;
+        this.ring = new RingBuffer<Tuple>(capacity);
+        this.consumer = Thread.currentThread();
+        this.producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                produce();
+            }
+        }, "Prefetcher " + dequeuer.getStreamProperties().getPath());
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * allow up to n more tuples to be dequeued than have been taken so far.
+     */
+    void request(int n) {
+        long l = delivered + n;
+        if (l > limit) {
+            limit = l;
+            LockSupport.unpark(producer);
+        }
+    }
+
+    /**
+     * take up to n tuples, waiting at most waitMillis for the first of them unless
+     * waitMillis is negative, in which case wait until the producer finishes.  Once
+     * the wait has expired the producer is closed, and any tuples it had already
+     * dequeued are still returned.
+     * @return the tuples, or <code>null</code> if no more tuples will be taken
+     */
+    List<Tuple> take(int n, long waitMillis) throws StreamBaseException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(waitMillis, 0));
+        List<Tuple> res = new ArrayList<Tuple>(Math.min(n, ring.capacity()));
+        while (true) {
+            // check before draining, anything published before finishing is then seen
+            boolean done = finished;
+            if (ring.drainTo(res, n) > 0) {
+                delivered += res.size();
+                LockSupport.unpark(producer);
+                return res;
+            }
+            if (error != null) {
+                throw new StreamBaseException(error);
+            }
+            if (done || delivered >= limit) {
+                return null;
+            }
+            long now = System.nanoTime();
+            if (waitMillis >= 0 && now >= deadline) {
+                close();
+                // the producer has stopped, so the next pass is final
+                waitMillis = -1;
+                continue;
+            }
+            LockSupport.parkNanos(this, waitMillis >= 0
+                    ? deadline - now
+                    : TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+        }
+    }
+
+    /**
+     * stop the producer and wait for it to finish.  Tuples it has already dequeued
+     * can still be taken.
+     */
+    void close() {
+        closed = true;
+        LockSupport.unpark(producer);
+        boolean interrupted = false;
+        while (producer.isAlive()) {
+            try {
+                producer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void produce() {
+        try {
+            while (!closed) {
+                int n = (int) Math.min(limit - dequeued, ring.free());
+                if (n <= 0) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+                    continue;
+                }
+                List<Tuple> batch = dequeuer.dequeue(n, untilEmpty ? 0 : POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch.isEmpty() && untilEmpty) {
+                    break;
+                }
+                for (Tuple t : batch) {
+                    ring.offer(t);
+                }
+                dequeued += batch.size();
+                if (!batch.isEmpty()) {
+                    LockSupport.unpark(consumer);
+                }
+            }
+        } catch (StreamBaseException e) {
+            error = e;
+        } finally {
+            finished = true;
+            LockSupport.unpark(consumer);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.streambase.sbunit.ext;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link MatchListener} that counts what it is told for each stream, and writes the
+ * counters to a file in the Prometheus text exposition format after every expect*()
+ * call, for example for the textfile collector of a node exporter.
+ * <p>
+ * The file is written to a temporary file next to it and then renamed, so readers
+ * never see a partial file.  A failure to write it is logged rather than failing 
+ * the expect*() call; {@link #write()} can be called to see it instead.
+ */
+public class PrometheusMatchListener implements MatchListener {
+    private static final Logger LOGGER = Logger.getLogger(PrometheusMatchListener.class.getName());
+
+    private static final String[][] METRICS = {
+        { "sbunit_dequeue_calls_total", "Number of dequeue attempts" },
+        { "sbunit_dequeued_tuples_total", "Number of tuples dequeued" },
+        { "sbunit_dequeue_seconds_total", "Time spent waiting for tuples" },
+        { "sbunit_evaluated_batches_total", "Number of batches of tuples matched" },
+        { "sbunit_evaluated_tuples_total", "Number of tuples matched" },
+        { "sbunit_matcher_invocations_total", "Number of calls to tuple matchers" },
+        { "sbunit_evaluate_seconds_total", "Time spent matching tuples" },
+        { "sbunit_expect_calls_total", "Number of completed expect calls" },
+        { "sbunit_missing_matchers_total", "Number of matchers reported missing" },
+        { "sbunit_report_seconds_total", "Time spent completing error reports" },
+    };
+
+    private static final int DEQUEUE_CALLS = 0;
+    private static final int DEQUEUED_TUPLES = 1;
+    private static final int DEQUEUE_NANOS = 2;
+    private static final int EVALUATED_BATCHES = 3;
+    private static final int EVALUATED_TUPLES = 4;
+    private static final int MATCHER_INVOCATIONS = 5;
+    private static final int EVALUATE_NANOS = 6;
+    private static final int EXPECT_CALLS = 7;
+    private static final int MISSING_MATCHERS = 8;
+    private static final int REPORT_NANOS = 9;
+
+    private final File file;
+    private final Map<String, AtomicLong[]> counters = new TreeMap<String, AtomicLong[]>();
+
+    /**
+     * @param file  the file to write the counters to
+     */
+    public PrometheusMatchListener(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void dequeued(String stream, int tuples, long nanos) {
+        AtomicLong[] c = countersFor(stream);
+        c[DEQUEUE_CALLS].incrementAndGet();
+        c[DEQUEUED_TUPLES].addAndGet(tuples);
+        c[DEQUEUE_NANOS].addAndGet(nanos);
+    }
+
+    @Override
+    public void evaluated(String stream, int tuples, long matcherInvocations, long nanos) {
+        AtomicLong[] c = countersFor(stream);
+        c[EVALUATED_BATCHES].incrementAndGet();
+        c[EVALUATED_TUPLES].addAndGet(tuples);
+        c[MATCHER_INVOCATIONS].addAndGet(matcherInvocations);
+        c[EVALUATE_NANOS].addAndGet(nanos);
+    }
+
+    @Override
+    public void reported(String stream, int missing, long nanos) {
+        AtomicLong[] c = countersFor(stream);
+        c[EXPECT_CALLS].incrementAndGet();
+        c[MISSING_MATCHERS].addAndGet(missing);
+        c[REPORT_NANOS].addAndGet(nanos);
+        try {
+            write();
+        } catch (IOException e) {
+            // the metrics are a by-product, so they must not fail the test
+            LOGGER.log(Level.WARNING, "Unable to write metrics to " + file, e);
+        }
+    }
+
+    /**
+     * write the counters to the file now.
+     */
+    public synchronized void write() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            out.write(toString());
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * get the counters in the Prometheus text exposition format
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int m = 0; m < METRICS.length; ++m) {
+            String name = METRICS[m][0];
+            sb.append("# HELP ").append(name).append(' ').append(METRICS[m][1]).append('\n');
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            for (Map.Entry<String, AtomicLong[]> e : counters.entrySet()) {
+                sb.append(name).append("{stream=\"").append(escape(e.getKey())).append("\"} ");
+                long val = e.getValue()[m].get();
+                if (name.endsWith("_seconds_total")) {
+                    sb.append(val / 1e9);
+                } else {
+                    sb.append(val);
+                }
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private synchronized AtomicLong[] countersFor(String stream) {
+        AtomicLong[] c = counters.get(stream);
+        if (c == null) {
+            c = new AtomicLong[METRICS.length];
+            for (int i = 0; i < c.length; ++i) {
+                c[i] = new AtomicLong();
+            }
+            counters.put(stream, c);
+        }
+        return c;
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
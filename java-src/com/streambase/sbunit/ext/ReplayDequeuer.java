@@ -0,0 +1,209 @@
+package com.streambase.sbunit.ext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.streambase.sb.Schema;
+import com.streambase.sb.StreamBaseException;
+import com.streambase.sb.StreamProperties;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleJSONUtil;
+import com.streambase.sb.unittest.Dequeuer;
+
+/**
+ * A {@link Dequeuer} that replays the tuples written by
+ * {@link StreamMatcher#capturing(File)}, so that matchers can be run again against
+ * a captured stream without a StreamBase server.  For example:
+ * <p>
+ * <pre>
+ * ReplayDequeuer replay = new ReplayDequeuer(new File("out.capture"));
+ * try {
+ *     StreamMatcher.on(replay).expectTuples(matchers);
+ * } finally {
+ *     replay.close();
+ * }
+ * </pre>
+ * <p>
+ * Tuples are returned as fast as they are asked for, in the order they were captured.
+ * A capture that was never closed is read up to the zero padding at its end.
+ * Once every tuple has been returned the stream behaves like an idle one, so dequeues
+ * wait out their timeout and return nothing.
+ */
+public class ReplayDequeuer implements Dequeuer {
+    private static final int REGION_SIZE = 1 << 24;
+
+    private final File path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long length;
+    private final String stream;
+    private MappedByteBuffer buffer;
+    private long regionStart;
+    private Schema schema = null;
+    private long lastArrival = -1;
+    private boolean ended = false;
+
+    /**
+     * open a capture file for replay
+     * @throws IOException if the file cannot be read or is not a capture file
+     */
+    public ReplayDequeuer(File path) throws IOException {
+        this.path = path;
+        this.file = new RandomAccessFile(path, "r");
+        this.channel = file.getChannel();
+        try {
+            this.length = channel.size();
+            if (length < 8) {
+                throw new IOException(path + " is not a capture file");
+            }
+            map(0, 8);
+            if (buffer.getInt() != TupleCapture.MAGIC) {
+                throw new IOException(path + " is not a capture file");
+            }
+            if (buffer.getInt() != TupleCapture.VERSION) {
+                throw new IOException(path + " was captured by an unknown version");
+            }
+            this.stream = getString();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public List<Tuple> dequeue(int n) throws StreamBaseException {
+        return dequeue(n, DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT);
+    }
+
+    /**
+     * get up to n of the remaining tuples, or all of them if n is negative.  If none
+     * remain, wait for the timeout as an idle stream would.
+     */
+    @Override
+    public synchronized List<Tuple> dequeue(int n, long timeout, TimeUnit unit) throws StreamBaseException {
+        List<Tuple> res = new ArrayList<Tuple>();
+        try {
+            while ((n < 0 || res.size() < n) && hasNext()) {
+                Tuple t = next();
+                if (t != null) {
+                    res.add(t);
+                }
+            }
+        } catch (IOException e) {
+            throw new StreamBaseException("Unable to read " + path, e);
+        }
+        if (res.isEmpty() && n != 0) {
+            try {
+                unit.sleep(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StreamBaseException(e);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * there is no application to wait for, so this returns nothing and leaves the
+     * remaining tuples to be dequeued.
+     */
+    @Override
+    public List<Tuple> drain() throws StreamBaseException {
+        return new ArrayList<Tuple>();
+    }
+
+    @Override
+    public StreamProperties getStreamProperties() {
+        return new StreamProperties() {
+            @Override
+            public String getPath() {
+                return stream;
+            }
+
+            @Override
+            public Schema getSchema() {
+                synchronized (ReplayDequeuer.this) {
+                    return schema;
+                }
+            }
+        };
+    }
+
+    /**
+     * get the time in milliseconds at which the most recently dequeued tuple was
+     * captured, or -1 if none has been dequeued
+     */
+    public synchronized long getLastArrivalMillis() {
+        return lastArrival;
+    }
+
+    /**
+     * close the capture file
+     */
+    public synchronized void close() throws IOException {
+        buffer = null;
+        file.close();
+    }
+
+    private boolean hasNext() {
+        return !ended && regionStart + buffer.position() < length;
+    }
+
+    /**
+     * read the next record
+     * @return the tuple it holds, or <code>null</code> for other records
+     */
+    private Tuple next() throws IOException, StreamBaseException {
+        reserve(1);
+        byte kind = buffer.get();
+        if (kind == TupleCapture.END) {
+            ended = true;
+            return null;
+        } else if (kind == TupleCapture.SCHEMA) {
+            schema = new Schema(getString());
+            return null;
+        } else if (kind == TupleCapture.TUPLE) {
+            reserve(8);
+            long arrival = buffer.getLong();
+            String json = getString();
+            if (schema == null) {
+                throw new IOException(path + " has a tuple before any schema");
+            }
+            Tuple t = schema.createTuple();
+            TupleJSONUtil.setTupleFromJSON(t, json);
+            lastArrival = arrival;
+            return t;
+        }
+        throw new IOException(path + " has an unknown record kind " + kind);
+    }
+
+    private String getString() throws IOException {
+        reserve(4);
+        int len = buffer.getInt();
+        reserve(len);
+        byte[] bytes = new byte[len];
+        buffer.get(bytes);
+        return new String(bytes, TupleCapture.UTF8);
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            map(regionStart + buffer.position(), bytes);
+        }
+    }
+
+    private void map(long start, int bytes) throws IOException {
+        if (start + bytes > length) {
+            throw new IOException(path + " is truncated");
+        }
+        long size = Math.min(Math.max(REGION_SIZE, bytes), length - start);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        regionStart = start;
+    }
+}
@@ -1,5 +1,7 @@
 package com.streambase.sbunit.ext;
 
+import com.streambase.sbunit.ext.StreamMatcher.ExtraTuples;
+
 /**
  * Factory and utility methods for {@link ErrorReport} and 
  * {@link ErrorReportFactory} classes.
@@ -12,5 +14,61 @@ public class Reports {
     public static ErrorReportFactory getBasicReportFactory() {
         return BasicErrorReport.FACTORY;
     }
+    
+    /**
+     * get a factory that produces {@link BasicErrorReport} instances whose message
+     * sections are each limited to about <code>messageLimit</code> characters.
+     */
+    public static ErrorReportFactory getBasicReportFactory(final int messageLimit) {
+        return new ErrorReportFactory() {
+            @Override
+            public ErrorReport newErrorReport(String header) {
+                return new BasicErrorReport(header, messageLimit);
+            }
+        };
+    }
+    
+    /**
+     * get a factory that produces {@link SpillingErrorReport} instances, keeping
+     * {@link SpillingErrorReport#DEFAULT_KEEP} entries of each kind in memory at 
+     * the start and at the end of the report.
+     */
+    public static ErrorReportFactory getSpillingReportFactory() {
+        return getSpillingReportFactory(SpillingErrorReport.DEFAULT_KEEP);
+    }
+    
+    /**
+     * get a factory that produces {@link SpillingErrorReport} instances, keeping
+     * <code>keep</code> entries of each kind in memory at the start and at the 
+     * end of the report.
+     */
+    public static ErrorReportFactory getSpillingReportFactory(final int keep) {
+        return new ErrorReportFactory() {
+            @Override
+            public ErrorReport newErrorReport(String header) {
+                return new SpillingErrorReport(header, keep);
+            }
+        };
+    }
+    
+    /**
+     * get whether {@link ErrorReport#throwIfError(ExtraTuples)} would throw, without
+     * building the failure for the reports of this package
+     */
+    static boolean hasErrors(ErrorReport report, ExtraTuples extra) {
+        if (report instanceof BasicErrorReport) {
+            return ((BasicErrorReport) report).hasErrors(extra);
+        }
+        if (report instanceof SpillingErrorReport) {
+            return ((SpillingErrorReport) report).hasErrors(extra);
+        }
+        // other reports can only tell by trying
+        try {
+            report.throwIfError(extra);
+            return false;
+        } catch (AssertionError e) {
+            return true;
+        }
+    }
 
 }
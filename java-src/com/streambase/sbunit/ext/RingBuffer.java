@@ -0,0 +1,82 @@
+package com.streambase.sbunit.ext;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded buffer for exactly one producer thread and one consumer thread.
+ * <p>
+ * Each position is only ever written by one side, so no locking is needed; the
+ * ordered writes of the positions publish the slots they cover.  Blocking is left
+ * to the caller.
+ */
+class RingBuffer<T> {
+    private final Object[] slots;
+    private final int mask;
+
+    // next slot to read, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // next slot to write, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity  the minimum number of elements held, rounded up to a power of two
+     */
+    RingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Object[size];
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * get the number of elements the producer may add without overflowing
+     */
+    int free() {
+        return slots.length - (int) (tail.get() - head.get());
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * add an element, only called by the producer.
+     * @return false if the buffer is full
+     */
+    boolean offer(T element) {
+        long t = tail.get();
+        if (t - head.get() == slots.length) {
+            return false;
+        }
+        slots[(int) t & mask] = element;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * move up to max elements into out, only called by the consumer.
+     * @return the number of elements moved
+     */
+    @SuppressWarnings("unchecked")
+    int drainTo(List<? super T> out, int max) {
+        long h = head.get();
+        int n = (int) Math.min(tail.get() - h, max);
+        for (int i = 0; i < n; ++i) {
+            int slot = (int) (h + i) & mask;
+            out.add((T) slots[slot]);
+            slots[slot] = null;
+        }
+        head.lazySet(h + n);
+        return n;
+    }
+}
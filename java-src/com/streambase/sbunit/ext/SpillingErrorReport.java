@@ -0,0 +1,422 @@
+package com.streambase.sbunit.ext;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleJSONUtil;
+import com.streambase.sbunit.ext.StreamMatcher.ExtraTuples;
+
+/**
+ * An English error report like {@link BasicErrorReport}, but with bounded memory use.
+ * <p>
+ * Only counters and the first and last <code>keep</code> entries of each kind are held
+ * in memory.  Entries in between are formatted and appended to a temporary file, which
+ * is only read back when the message is rendered for a failure.  Since no message
+ * shows more than the message limit of each kind, entries are only spilled until 
+ * that much text has been written for their kind; later ones are only counted, and
+ * are elided from the message.  Consequently
+ * {@link #getFoundTuples()}, {@link #getFoundMatchers()}, {@link #getUnexpectedTuples()}
+ * and {@link #getMissingMatchers()} only return the entries held in memory; the
+ * <code>get*Count()</code> methods return the totals.
+ * <p>
+ * {@link #close()} deletes the temporary file.  A report closes itself when 
+ * {@link #throwIfError(ExtraTuples)} finds no error, and the failure it throws 
+ * otherwise closes it once its messages have been rendered.  A report collected 
+ * without either should be closed by its user; any file still open when the JVM 
+ * exits is deleted then.
+ */
+public class SpillingErrorReport implements ErrorReport, Closeable {
+    /**
+     * the number of entries kept in memory at each end of the report by default
+     */
+    public static final int DEFAULT_KEEP = 100;
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte MISSING = 0;
+    private static final byte UNEXPECTED = 1;
+    private static final byte FOUND = 2;
+
+    private final String header;
+    private final int keep;
+    private final int messageLimit;
+
+    private final Entries<TupleMatcher> missing = new Entries<TupleMatcher>(MISSING);
+    private final Entries<Tuple> unexpected = new Entries<Tuple>(UNEXPECTED);
+    private final Entries<Tuple> foundTuples = new Entries<Tuple>(FOUND);
+    private final Entries<TupleMatcher> foundMatchers = new Entries<TupleMatcher>(FOUND);
+
+    private File spillFile = null;
+    private DataOutputStream spill = null;
+    private boolean closed = false;
+
+    /**
+     * Create an empty error report.
+     * @param header  A human readable header to preface the error message
+     * @param keep  The number of entries of each kind to keep in memory at the start
+     *              and at the end of the report
+     */
+    public SpillingErrorReport(String header, int keep) {
+        this(header, keep, BasicErrorReport.DEFAULT_MESSAGE_LIMIT);
+    }
+
+    /**
+     * Create an empty error report.
+     * @param header  A human readable header to preface the error message
+     * @param keep  The number of entries of each kind to keep in memory at the start
+     *              and at the end of the report
+     * @param messageLimit  The number of characters of each message beyond which
+     *                      tuples are elided
+     */
+    public SpillingErrorReport(String header, int keep, int messageLimit) {
+        if (keep < 0) {
+            throw new IllegalArgumentException("keep must not be negative");
+        }
+        this.header = header;
+        this.keep = keep;
+        this.messageLimit = messageLimit;
+    }
+
+    @Override
+    public void addFoundTuple(TupleMatcher m, Tuple t) {
+        foundMatchers.add(m, false);
+        foundTuples.add(t, true);
+    }
+
+    @Override
+    public void addUnexpectedTuple(Tuple t) {
+        unexpected.add(t, true);
+    }
+
+    @Override
+    public void addMissingMatcher(TupleMatcher m) {
+        missing.add(m, true);
+    }
+
+    @Override
+    public List<Tuple> getFoundTuples() {
+        return foundTuples.inMemory();
+    }
+
+    @Override
+    public List<TupleMatcher> getFoundMatchers() {
+        return foundMatchers.inMemory();
+    }
+
+    @Override
+    public List<Tuple> getUnexpectedTuples() {
+        return unexpected.inMemory();
+    }
+
+    @Override
+    public List<TupleMatcher> getMissingMatchers() {
+        return missing.inMemory();
+    }
+
+    /**
+     * get the total number of tuples that matched successfully
+     */
+    public long getFoundCount() {
+        return foundTuples.count;
+    }
+
+    /**
+     * get the total number of tuples that arrived unexpectedly
+     */
+    public long getUnexpectedCount() {
+        return unexpected.count;
+    }
+
+    /**
+     * get the total number of tuple matchers that failed to match
+     */
+    public long getMissingCount() {
+        return missing.count;
+    }
+
+    @Override
+    public void throwIfError(ExtraTuples extra) throws AssertionError {
+        if (hasErrors(extra)) {
+            throw new ExpectTuplesFailure(this);
+        }
+        // nothing will render a report that passed
+        close();
+    }
+
+    /**
+     * get whether {@link #throwIfError(ExtraTuples)} would throw
+     */
+    boolean hasErrors(ExtraTuples extra) {
+        return missing.count > 0 || (extra == ExtraTuples.ERROR && unexpected.count > 0);
+    }
+
+    /**
+     * Delete the temporary file, if there is one.  Entries that were spilled to it
+     * are still counted, but are elided from any message rendered afterwards, and 
+     * later entries are no longer spilled.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // the file is deleted regardless
+            }
+            spill = null;
+            SpillFiles.delete(spillFile);
+            spillFile = null;
+        }
+    }
+
+    @Override
+    public String getMessage() {
+        LimitedAppendable sb = new LimitedAppendable(messageLimit);
+        sb.append(this.header);
+        if (missing.count > 0) {
+            sb.append("\nMissing tuples:\n");
+            missing.appendTo(sb);
+        }
+        if (unexpected.count > 0) {
+            sb.append("\nUnexpected tuples:\n");
+            unexpected.appendTo(sb);
+        }
+        if (foundTuples.count > 0) {
+            sb.append("\nFound tuples:\n");
+            foundTuples.appendTo(sb);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getActualMessage() {
+        LimitedAppendable sb = new LimitedAppendable(messageLimit);
+        unexpected.appendTo(sb);
+        return sb.toString();
+    }
+
+    @Override
+    public String getExpectedMessage() {
+        LimitedAppendable sb = new LimitedAppendable(messageLimit);
+        missing.appendTo(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Subclasses wishing to customize the display of Tuples in the
+     * error message should override this method.
+     */
+    protected String formatTupleForMessage(Tuple t) {
+        return TupleJSONUtil.toJSONMapString(t);
+    }
+
+    /**
+     * Subclasses wishing to customize the display of {@link TupleMatcher}s in the
+     * error message should override this method.
+     */
+    protected String formatMatcherForMessage(TupleMatcher m) {
+        Gson gson = new Gson();
+        return gson.toJson(m.describe(gson));
+    }
+
+    private String format(Object o) {
+        if (o instanceof Tuple) {
+            return formatTupleForMessage((Tuple) o);
+        }
+        return formatMatcherForMessage((TupleMatcher) o);
+    }
+
+    /**
+     * @return whether the entry was written
+     */
+    private boolean writeSpill(byte kind, String text) {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (spill == null) {
+                spillFile = SpillFiles.create();
+                spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+            }
+            byte[] bytes = text.getBytes(UTF8);
+            spill.writeByte(kind);
+            spill.writeInt(bytes.length);
+            spill.write(bytes);
+            return true;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to the error report spill file", e);
+        }
+    }
+
+    /**
+     * append spilled entries of the given kind to sb, each preceded by a new line
+     * unless it is the very first entry, until sb is full.
+     * @return the number of entries appended
+     */
+    private long readSpill(byte kind, LimitedAppendable sb, long emitted) {
+        if (spill == null) {
+            return 0;
+        }
+        try {
+            spill.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+            try {
+                long appended = 0;
+                while (!sb.isFull()) {
+                    byte k;
+                    try {
+                        k = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    if (k == kind) {
+                        if (emitted + appended > 0) {
+                            sb.append("\n");
+                        }
+                        sb.append(new String(bytes, UTF8));
+                        ++appended;
+                    }
+                }
+                return appended;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read the error report spill file", e);
+        }
+    }
+
+    /**
+     * The first and last entries of one kind, with the rest spilled to the file.
+     */
+    private class Entries<T> {
+        private final byte kind;
+        private final List<T> head = new ArrayList<T>();
+        private final ArrayDeque<T> tail = new ArrayDeque<T>();
+        private long count = 0;
+        private long spilledChars = 0;
+
+        Entries(byte kind) {
+            this.kind = kind;
+        }
+
+        void add(T entry, boolean spillable) {
+            ++count;
+            if (head.size() < keep) {
+                head.add(entry);
+                return;
+            }
+            tail.addLast(entry);
+            if (tail.size() > keep) {
+                T evicted = tail.removeFirst();
+                // once the spill alone would fill a message, nothing more of it is shown
+                if (spillable && spilledChars < messageLimit && !closed) {
+                    String text = format(evicted);
+                    if (writeSpill(kind, text)) {
+                        spilledChars += text.length() + 1;
+                    }
+                }
+            }
+        }
+
+        List<T> inMemory() {
+            List<T> res = new ArrayList<T>(head);
+            res.addAll(tail);
+            return res;
+        }
+
+        void appendTo(LimitedAppendable sb) {
+            long emitted = 0;
+            for (T e : head) {
+                if (!append(sb, e, emitted++)) {
+                    return;
+                }
+            }
+            emitted += readSpill(kind, sb, emitted);
+            if (sb.isFull() && emitted < count) {
+                // the tail is always shown after everything spilled, so we can't skip to it
+                sb.elided(count - emitted);
+                return;
+            }
+            long dropped = count - emitted - tail.size();
+            if (dropped > 0) {
+                // entries that were only counted, or whose spill has been deleted
+                sb.elided(dropped);
+                emitted += dropped;
+            }
+            for (T e : tail) {
+                if (!append(sb, e, emitted++)) {
+                    return;
+                }
+            }
+        }
+
+        private boolean append(LimitedAppendable sb, T e, long emitted) {
+            if (sb.isFull()) {
+                sb.elided(count - emitted);
+                return false;
+            }
+            if (emitted > 0) {
+                sb.append("\n");
+            }
+            sb.append(format(e));
+            return true;
+        }
+    }
+
+    /**
+     * The spill files of reports that have not been closed, which are deleted when
+     * the JVM exits.
+     */
+    private static class SpillFiles {
+        private static final Set<File> OPEN = new HashSet<File>();
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread("SpillingErrorReport cleanup") {
+                @Override
+                public void run() {
+                    synchronized (OPEN) {
+                        for (File f : OPEN) {
+                            f.delete();
+                        }
+                        OPEN.clear();
+                    }
+                }
+            });
+        }
+
+        static File create() throws IOException {
+            File f = File.createTempFile("sbunit-report", ".spill");
+            synchronized (OPEN) {
+                OPEN.add(f);
+            }
+            return f;
+        }
+
+        static void delete(File f) {
+            f.delete();
+            synchronized (OPEN) {
+                OPEN.remove(f);
+            }
+        }
+    }
+}
@@ -1,13 +1,34 @@
 package com.streambase.sbunit.ext;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.gson.Gson;
 import com.streambase.sb.StreamBaseException;
 import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
 import com.streambase.sb.unittest.Dequeuer;
+import com.streambase.sb.unittest.Enqueuer;
 
 /**
  * {@link StreamMatcher} encapsulates the details of watching a stream for
@@ -48,27 +69,150 @@ public class StreamMatcher {
      */
     public static enum Ordering {
         ORDERED,
-        UNORDERED
+        UNORDERED,
+        
+        /**
+         * Like {@link #UNORDERED}, but tuples are assigned to matchers so that as 
+         * many matchers as possible are satisfied, rather than each tuple being 
+         * given the first matcher it matches.  This avoids spurious failures when 
+         * the matchers overlap, at the cost of checking each tuple against every 
+         * candidate matcher.
+         */
+        UNORDERED_MAXIMAL,
+        
+        /**
+         * Like {@link #ORDERED}, but a tuple may match any of the next few outstanding
+         * matchers, so tuples may arrive out of order by a bounded number of places.
+         * The number of matchers is set with {@link StreamMatcher#reorderWindow(int)}, 
+         * and is {@link StreamMatcher#DEFAULT_REORDER_WINDOW} by default.  No matcher
+         * may be overtaken by as many tuples as there are matchers in the window; 
+         * when extra tuples are errors, they count as overtaking every matcher they 
+         * could have matched.
+         */
+        WINDOWED,
+        
+        /**
+         * Tuples must arrive in order among those with the same value of a key field,
+         * but tuples with different values may arrive in any order relative to each 
+         * other.  The key field is set with {@link StreamMatcher#orderingPerKey(String)},
+         * and every expected matcher must require a literal value for it, as 
+         * {@link Matchers#literal(Tuple)} does.
+         */
+        PER_KEY
     }
     
-    private final boolean automaticTimeout;
-    private final long timeout;
-    private final TimeUnit timeUnit;
-    private final ExtraTuples extras;
-    private final Ordering ordering;
+    /**
+     * the number of matchers a tuple may match with {@link Ordering#WINDOWED} by default
+     */
+    public static final int DEFAULT_REORDER_WINDOW = 4;
+    
+    /**
+     * the number of matchers held at once by {@link #expectTuples(Iterator)}
+     */
+    public static final int STREAMING_WINDOW = 4096;
+    
+    /**
+     * the number of missing and of unexpected tuples {@link #expectTuples(Iterator)}
+     * keeps for the error report, further ones are only counted
+     */
+    public static final int MAX_STREAMING_FAILURES = 100;
+    
+    /**
+     * the shortest time over which {@link #expectThroughput(int, double)} will 
+     * measure a rate
+     */
+    public static final long MIN_THROUGHPUT_INTERVAL_MILLIS = 10;
+    
+    /**
+     * runs asynchronous expect calls by default, and streams verified together
+     */
+    static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "StreamMatcher-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    
+    /**
+     * the pools that match in parallel, one for each number of threads asked for, 
+     * created when first needed and shared by every {@link StreamMatcher}
+     */
+    private static final Map<Integer, ForkJoinPool> POOLS = new HashMap<Integer, ForkJoinPool>();
+    
+    private static ForkJoinPool pool(int threads) {
+        synchronized (POOLS) {
+            ForkJoinPool pool = POOLS.get(threads);
+            if (pool == null) {
+                // its worker threads are daemons, so it never needs shutting down
+                pool = new ForkJoinPool(threads);
+                POOLS.put(threads, pool);
+            }
+            return pool;
+        }
+    }
+    
+    // configuration is only assigned while a copy is being made in one of the 
+    // configuration methods, so StreamMatchers are effectively immutable
+    private ExpectWindow.Mode timeoutMode;
+    private double quietFactor;
+    private long timeout;
+    private TimeUnit timeUnit;
+    private ExtraTuples extras;
+    private Ordering ordering;
+    private int prefetchCapacity;
+    private int parallelism;
+    private int warmupTuples;
+    private MatchListener listener;
+    private int reorderWindow;
+    private String keyField;
+    private TupleMatcher[] forbidden;
+    private File capture;
+    private Executor executor;
     private final Dequeuer dequeuer;
-    private final ErrorReportFactory reportFactory;
+    private ErrorReportFactory reportFactory;
     
-    private StreamMatcher(Dequeuer dequeuer, boolean automaticTimeout, long timeout, TimeUnit timeUnit, 
-            ExtraTuples extras, Ordering ordering, ErrorReportFactory reporter) {
-        assert timeout >= 0;
+    private StreamMatcher(Dequeuer dequeuer) {
         this.dequeuer = dequeuer;
-        this.automaticTimeout = automaticTimeout;
-        this.timeout = timeout;
-        this.timeUnit = timeUnit;
-        this.extras = extras;
-        this.ordering = ordering;
-        this.reportFactory = reporter;
+        this.timeoutMode = ExpectWindow.Mode.FIXED;
+        this.quietFactor = ExpectWindow.DEFAULT_QUIET_FACTOR;
+        this.timeout = Dequeuer.DEFAULT_TIMEOUT;
+        this.timeUnit = Dequeuer.DEFAULT_TIMEOUT_UNIT;
+        this.extras = ExtraTuples.ERROR;
+        this.ordering = Ordering.ORDERED;
+        this.prefetchCapacity = 0;
+        this.parallelism = 1;
+        this.warmupTuples = 0;
+        this.listener = null;
+        this.reorderWindow = DEFAULT_REORDER_WINDOW;
+        this.keyField = null;
+        this.forbidden = null;
+        this.capture = null;
+        this.executor = EXECUTOR;
+        this.reportFactory = Reports.getBasicReportFactory();
+    }
+    
+    private StreamMatcher(StreamMatcher other) {
+        this.dequeuer = other.dequeuer;
+        this.timeoutMode = other.timeoutMode;
+        this.quietFactor = other.quietFactor;
+        this.timeout = other.timeout;
+        this.timeUnit = other.timeUnit;
+        this.extras = other.extras;
+        this.ordering = other.ordering;
+        this.prefetchCapacity = other.prefetchCapacity;
+        this.parallelism = other.parallelism;
+        this.warmupTuples = other.warmupTuples;
+        this.listener = other.listener;
+        this.reorderWindow = other.reorderWindow;
+        this.keyField = other.keyField;
+        this.forbidden = other.forbidden;
+        this.capture = other.capture;
+        this.executor = other.executor;
+        this.reportFactory = other.reportFactory;
     }
     
     /**
@@ -85,10 +229,27 @@ public class StreamMatcher {
      * </code>
      */
     public static StreamMatcher on(Dequeuer dequeuer) {
-        return new StreamMatcher(dequeuer, 
-                false, Dequeuer.DEFAULT_TIMEOUT, Dequeuer.DEFAULT_TIMEOUT_UNIT, 
-                ExtraTuples.ERROR, Ordering.ORDERED,
-                Reports.getBasicReportFactory());
+        return new StreamMatcher(dequeuer);
+    }
+    
+    /**
+     * Create a {@link MultiStreamMatcher} that verifies each of the given streams 
+     * concurrently, using a default {@link StreamMatcher} for each.
+     */
+    public static MultiStreamMatcher onAll(Dequeuer... dequeuers) {
+        List<StreamMatcher> matchers = new ArrayList<StreamMatcher>();
+        for (Dequeuer d : dequeuers) {
+            matchers.add(on(d));
+        }
+        return MultiStreamMatcher.of(matchers);
+    }
+    
+    /**
+     * Create a {@link MultiStreamMatcher} that verifies the streams of each of the given
+     * {@link StreamMatcher}s concurrently, according to their own configuration.
+     */
+    public static MultiStreamMatcher onAll(StreamMatcher... matchers) {
+        return MultiStreamMatcher.of(Arrays.asList(matchers));
     }
     
     /**
@@ -96,7 +257,9 @@ public class StreamMatcher {
      * within expect*() calls according to the provided {@link ExtraTuples}
      */
     public StreamMatcher onExtra(ExtraTuples extras) {
-        return new StreamMatcher(dequeuer, automaticTimeout, timeout, timeUnit, extras, ordering, reportFactory);
+        StreamMatcher res = new StreamMatcher(this);
+        res.extras = extras;
+        return res;
     }
     
     /**
@@ -104,7 +267,81 @@ public class StreamMatcher {
      * within expect*() calls according to the provided {@link Ordering}.
      */
     public StreamMatcher ordering(Ordering ordering) {
-        return new StreamMatcher(dequeuer, automaticTimeout, timeout, timeUnit, extras, ordering, reportFactory);
+        if (ordering == Ordering.PER_KEY) {
+            throw new IllegalArgumentException("use orderingPerKey() to name the key field");
+        }
+        StreamMatcher res = new StreamMatcher(this);
+        res.ordering = ordering;
+        return res;
+    }
+    
+    /**
+     * Create an identical {@link StreamMatcher} except that expect*() calls will fail
+     * as soon as a tuple matching any of the provided matchers is dequeued, whether 
+     * or not it was also expected.  The forbidden matchers replace any provided earlier,
+     * and are indexed like expected matchers, so many can be checked cheaply.
+     */
+    public StreamMatcher forbidding(TupleMatcher... matchers) {
+        StreamMatcher res = new StreamMatcher(this);
+        res.forbidden = matchers.length == 0 ? null : matchers.clone();
+        return res;
+    }
+    
+    /**
+     * Create an identical {@link StreamMatcher} except that every tuple dequeued by 
+     * expect*() calls is appended to <code>file</code> with its schema and the time 
+     * it was received, so that the same matchers can be run against it later through 
+     * a {@link ReplayDequeuer}.  The file is created if it does not exist.
+     */
+    public StreamMatcher capturing(File file) {
+        StreamMatcher res = new StreamMatcher(this);
+        res.capture = file;
+        return res;
+    }
+    
+    /**
+     * Create an identical {@link StreamMatcher} except that asynchronous expect*() 
+     * calls will run on the provided {@link Executor}.  By default they run on a 
+     * shared pool of daemon threads.
+     */
+    public StreamMatcher executor(Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        StreamMatcher res = new StreamMatcher(this);
+        res.executor = executor;
+        return res;
+    }
+    
+    /**
+     * Create an identical {@link StreamMatcher} except that it will use 
+     * {@link Ordering#PER_KEY} ordering, expecting tuples in order among those with
+     * the same value of <code>field</code>.
+     */
+    public StreamMatcher orderingPerKey(String field) {
+        if (field == null) {
+            throw new NullPointerException("field");
+        }
+        StreamMatcher res = new StreamMatcher(this);
+        res.ordering = Ordering.PER_KEY;
+        res.keyField = field;
+        return res;
+    }
+    
+    /**
+     * Create an identical {@link StreamMatcher} except that it will use 
+     * {@link Ordering#WINDOWED} ordering, allowing each tuple to match any of the next
+     * <code>k</code> outstanding matchers.  A window of 1 is the same as 
+     * {@link Ordering#ORDERED}.
+     */
+    public StreamMatcher reorderWindow(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        StreamMatcher res = new StreamMatcher(this);
+        res.ordering = Ordering.WINDOWED;
+        res.reorderWindow = k;
+        return res;
     }
     
     /**
@@ -112,7 +349,12 @@ public class StreamMatcher {
      * within expect*() calls.
      */
     public StreamMatcher timeout(long timeout, TimeUnit timeUnit) {
-        return new StreamMatcher(dequeuer, false, timeout, timeUnit, extras, ordering, reportFactory);
+        assert timeout >= 0;
+        StreamMatcher res = new StreamMatcher(this);
+        res.timeoutMode = ExpectWindow.Mode.FIXED;
+        res.timeout = timeout;
+        res.timeUnit = timeUnit;
+        return res;
     }
     
     /**
@@ -120,7 +362,9 @@ public class StreamMatcher {
      * within expect*() calls.
      */
     public StreamMatcher reporting(ErrorReportFactory reportFactory) {
-        return new StreamMatcher(dequeuer, automaticTimeout, timeout, timeUnit, extras, ordering, reportFactory);
+        StreamMatcher res = new StreamMatcher(this);
+        res.reportFactory = reportFactory;
+        return res;
     }
     
 
@@ -129,9 +373,138 @@ public class StreamMatcher {
      * appropriate timeouts based on server activity.
      */
     public StreamMatcher automaticTimeout() {
-        return new StreamMatcher(dequeuer, true, 0, TimeUnit.MILLISECONDS, extras, ordering, reportFactory);
+        StreamMatcher res = new StreamMatcher(this);
+        res.timeoutMode = ExpectWindow.Mode.AUTOMATIC;
+        res.timeout = 0;
+        res.timeUnit = TimeUnit.MILLISECONDS;
+        return res;
     }
     
+    /**
+     * Create an identical {@link StreamMatcher} except that it will stop waiting within 
+     * expect*() calls once the stream has gone quiet.  The time between arrivals is
+     * tracked during each call, and the stream is considered quiet once nothing has 
+     * arrived for four times the 99th percentile of those gaps.  No call waits longer 
+     * than the provided timeout.  Until the first tuple arrives,
+     * a second without tuples counts as quiet.
+     */
+    public StreamMatcher quiescenceTimeout(long maxTimeout, TimeUnit timeUnit) {
+        return quiescenceTimeout(maxTimeout, timeUnit, ExpectWindow.DEFAULT_QUIET_FACTOR);
+    }
+    
+    /**
+     * Create an identical {@link StreamMatcher} except that it will stop waiting within 
+     * expect*() calls once the stream has gone quiet.  The time between arrivals is
+     * tracked during each call, and the stream is considered quiet once nothing has 
+     * arrived for <code>quietFactor</code> times the 99th percentile of those gaps.  
+     * No call waits longer than the provided timeout.  Until the first tuple arrives,
+     * a second without tuples counts as quiet.
+     */
+    public StreamMatcher quiescenceTimeout(long maxTimeout, TimeUnit timeUnit, double quietFactor) {
+        assert maxTimeout >= 0;
+        StreamMatcher res = new StreamMatcher(this);
+        res.timeoutMode = ExpectWindow.Mode.QUIESCENT;
+        res.quietFactor = quietFactor;
+        res.timeout = maxTimeout;
+        res.timeUnit = timeUnit;
+        return res;
+    }
+    
+    /**
+     * Create an identical {@link StreamMatcher} except that within expect*() calls a 
+     * background thread will keep dequeuing tuples into a buffer of the given capacity 
+     * while earlier tuples are being matched, so that matching and waiting for tuples 
+     * overlap.  It never dequeues more tuples than the call could consume, so tuples
+     * meant for later calls are left on the stream.
+     * @param capacity  the most tuples held in the buffer, or 0 to dequeue on the
+     *                  calling thread
+     */
+    public StreamMatcher prefetching(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        StreamMatcher res = new StreamMatcher(this);
+        res.prefetchCapacity = capacity;
+        return res;
+    }
+    
+    /**
+     * Create an identical {@link StreamMatcher} except that with {@link Ordering#UNORDERED}
+     * each batch of tuples is checked against the remaining {@link TupleMatcher}s on a
+     * {@link ForkJoinPool} of the given number of threads, shared with every other 
+     * {@link StreamMatcher} that asks for as many.  The results are identical
+     * to matching on one thread, so it only pays off with very many or very expensive
+     * matchers, which must then be safe to use from several threads at once.
+     * @param threads  the number of threads, or 1 to match on the calling thread
+     */
+    public StreamMatcher parallelism(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        StreamMatcher res = new StreamMatcher(this);
+        res.parallelism = threads;
+        return res;
+    }
+    
+    /**
+     * Create an identical {@link StreamMatcher} except that it will tell the provided
+     * listener where time is spent within expect*() calls.
+     * @param listener  the listener, or <code>null</code> for none
+     */
+    public StreamMatcher listening(MatchListener listener) {
+        StreamMatcher res = new StreamMatcher(this);
+        res.listener = listener;
+        return res;
+    }
+    
+    /**
+     * Create an identical {@link StreamMatcher} except that {@link #expectThroughput(int, double)}
+     * will first discard the given number of tuples, so that JIT compilation and server
+     * startup do not distort the measurement.
+     */
+    public StreamMatcher warmup(int tuples) {
+        if (tuples < 0) {
+            throw new IllegalArgumentException("tuples must not be negative");
+        }
+        StreamMatcher res = new StreamMatcher(this);
+        res.warmupTuples = tuples;
+        return res;
+    }
+    
+    /**
+     * Create a {@link StreamVerifier} that will continuously check the stream against 
+     * expectations on a background thread, using the ordering, extra tuple handling, 
+     * reporting and timeout of this {@link StreamMatcher}.  Each expectation added 
+     * to the verifier must be met within the timeout; with {@link #automaticTimeout()} 
+     * the timeout is {@link Dequeuer#DEFAULT_TIMEOUT}.
+     * @param maxOutstanding  the most expectations the verifier will hold at once
+     * @throws IllegalArgumentException if the ordering is other than
+     *                                  {@link Ordering#ORDERED} or {@link Ordering#UNORDERED}
+     */
+    public StreamVerifier verifier(int maxOutstanding) {
+        return new StreamVerifier(dequeuer, ordering, extras, verificationTimeoutMillis(), 
+                maxOutstanding, reportFactory);
+    }
+    
+    private long verificationTimeoutMillis() {
+        return timeoutMode == ExpectWindow.Mode.AUTOMATIC 
+                ? Dequeuer.DEFAULT_TIMEOUT_UNIT.toMillis(Dequeuer.DEFAULT_TIMEOUT)
+                : timeUnit.toMillis(timeout);
+    }
+    
+    /**
+     * Create a {@link LatencyTracker} that will time tuples enqueued through it until 
+     * they come out on this stream, using the extra tuple handling, reporting and 
+     * timeout of this {@link StreamMatcher}.  Every tuple must come out within the 
+     * timeout; with {@link #automaticTimeout()} the timeout is {@link Dequeuer#DEFAULT_TIMEOUT}.
+     * @param enqueuer  the input stream to enqueue tuples on
+     * @param correlationField  an int, long or string field of both streams that the
+     *                          application copies from input to output
+     */
+    public LatencyTracker latencyTracker(Enqueuer enqueuer, String correlationField) {
+        return new LatencyTracker(dequeuer, enqueuer, correlationField, extras, 
+                verificationTimeoutMillis(), reportFactory);
+    }
     
     /**
      * Expect tuples that match each of the given {@link TupleMatcher}s
@@ -148,11 +521,31 @@ public class StreamMatcher {
      * @throws AssertionError if the expected tuples do not match
      */
     public void expectTuples(List<? extends TupleMatcher> matchers) throws StreamBaseException, AssertionError {
-        if (ordering == Ordering.ORDERED) {
-            expectOrderedImpl(matchers);
-        } else {
-            expectUnorderedImpl(matchers);
+        collect(matchers).throwIfError(extras);
+    }
+    
+    /**
+     * Expect tuples that match each of the {@link TupleMatcher}s returned by the
+     * iterator.  With {@link Ordering#ORDERED} the matchers are taken from the iterator
+     * as tuples arrive, and only {@link #STREAMING_WINDOW} of them are held at once,
+     * so very long sequences of expected tuples can be checked in bounded memory.  
+     * Found tuples are then left out of the {@link ErrorReport}, and only the first 
+     * {@link #MAX_STREAMING_FAILURES} missing and unexpected tuples are kept, with 
+     * the report saying how many there were in all.  Other orderings take every 
+     * matcher from the iterator first.
+     * @throws StreamBaseException if an internal error occurs
+     * @throws AssertionError if the expected tuples do not match
+     */
+    public void expectTuples(Iterator<? extends TupleMatcher> matchers) throws StreamBaseException, AssertionError {
+        if (ordering != Ordering.ORDERED) {
+            List<TupleMatcher> all = new ArrayList<TupleMatcher>();
+            while (matchers.hasNext()) {
+                all.add(matchers.next());
+            }
+            expectTuples(all);
+            return;
         }
+        expectStreamingImpl(matchers).throwIfError(extras);
     }
     
     /**
@@ -161,99 +554,521 @@ public class StreamMatcher {
      * @throws AssertionError if the expected tuples do not match
      */
     public void expectTuple(TupleMatcher m) throws StreamBaseException, AssertionError {
-        expectOrderedImpl(Collections.singletonList(m));
+        expectOrderedImpl(Collections.singletonList(m)).throwIfError(extras);
+    }
+    
+    /**
+     * match tuples against the given {@link TupleMatcher}s, returning the report 
+     * rather than throwing on failure.
+     */
+    ErrorReport collect(List<? extends TupleMatcher> matchers) throws StreamBaseException {
+        if (ordering == Ordering.ORDERED) {
+            return expectOrderedImpl(matchers);
+        } else if (ordering == Ordering.UNORDERED_MAXIMAL) {
+            return expectMaximalImpl(matchers);
+        } else if (ordering == Ordering.WINDOWED) {
+            return expectWindowedImpl(matchers);
+        } else if (ordering == Ordering.PER_KEY) {
+            return expectPerKeyImpl(matchers);
+        } else {
+            return expectUnorderedImpl(matchers);
+        }
+    }
+    
+    private String getStreamPath() {
+        return dequeuer.getStreamProperties().getPath();
+    }
+    
+    Dequeuer getDequeuer() {
+        return dequeuer;
+    }
+    
+    ExtraTuples getExtras() {
+        return extras;
     }
     
-    private void expectUnorderedImpl(List<? extends TupleMatcher> expected) throws StreamBaseException {
-        // We use a simple n^2 algorithm to find the differences between the two sets
-        //
-        // for each expected tuple, scan the actual list
-        //  - when a match is found, remove the tuples from both lists by marking them as 'null'
+    private ErrorReport expectUnorderedImpl(List<? extends TupleMatcher> expected) throws StreamBaseException {
+        // for each actual tuple, find the first expected matcher that it matches
+        //  - equal matchers share one slot, which counts how many of them are left, and
+        //    are tried where the first of them was expected
+        //  - the MatcherIndex limits the scan to matchers that could possibly match
+        //  - when the last matcher of a slot is found, remove it by marking it as 'null'
+        //  - with a pool, each batch is searched in parallel and then resolved in order
         // afterwards 
-        //  - non-null elements in the expect lists were expected but missing
-        //  - non-null elements in the actual lists were unexpected extras
+        //  - the matchers left in each slot were expected but missing
+        //  - unmatched actual tuples were unexpected extras
         
-        long now = System.currentTimeMillis();
-        long finish = now + timeUnit.toMillis(timeout);
+        ErrorReport report = makeErrorReport(expected.size());
+        
+        Map<TupleMatcher, Integer> slots = new HashMap<TupleMatcher, Integer>();
+        List<TupleMatcher> distinct = new ArrayList<TupleMatcher>();
+        int[] slotOf = new int[expected.size()];
+        for (int i = 0; i < slotOf.length; ++i) {
+            TupleMatcher m = expected.get(i);
+            Integer slot = slots.get(m);
+            if (slot == null) {
+                slot = distinct.size();
+                slots.put(m, slot);
+                distinct.add(m);
+            }
+            slotOf[i] = slot;
+        }
+        
+        TupleMatcher[] exp = distinct.toArray(new TupleMatcher[distinct.size()]);
+        TupleMatcher[] all = exp.clone();
+        int[] counts = new int[exp.length];
+        for (int slot : slotOf) {
+            ++counts[slot];
+        }
+        int[] total = counts.clone();
+        MatcherIndex index = new MatcherIndex(exp);
+        ParallelMatcher parallel = parallelism > 1 ? new ParallelMatcher(pool(parallelism), exp, counts, index) : null;
+        int remaining = slotOf.length;
+        
+        ExpectWindow window = openWindow(extras);
+        try {
+            List<Tuple> actual;
+            while (remaining > 0 && (actual = window.next(remaining)) != null) {
+                long began = System.nanoTime();
+                long invoked = parallel != null ? parallel.getInvocations() : index.getInvocations();
+                int[] found;
+                if (parallel != null) {
+                    found = parallel.matchBatch(actual);
+                } else {
+                    found = new int[actual.size()];
+                    for (int t = 0; t < found.length; ++t) {
+                        found[t] = index.find(actual.get(t));
+                        if (found[t] >= 0 && --counts[found[t]] == 0) {
+                            exp[found[t]] = null;
+                        }
+                    }
+                }
+                
+                for (int t = 0; t < found.length; ++t) {
+                    if (found[t] >= 0) {
+                        report.addFoundTuple(all[found[t]], actual.get(t));
+                        --remaining;
+                    } else {
+                        report.addUnexpectedTuple(actual.get(t));
+                    }
+                }
+                if (listener != null) {
+                    invoked = (parallel != null ? parallel.getInvocations() : index.getInvocations()) - invoked;
+                    listener.evaluated(getStreamPath(), actual.size(), invoked, System.nanoTime() - began);
+                }
+                if (!window.isOpen()) {
+                    break;
+                }
+            }
+        } finally {
+            window.close();
+        }
+        
+        long began = System.nanoTime();
+        int missing = 0;
+        // the matchers of a slot are found in order, so the ones left are its last
+        int[] seen = new int[exp.length];
+        for (int i = 0; i < slotOf.length; ++i) {
+            int slot = slotOf[i];
+            if (seen[slot]++ >= total[slot] - counts[slot]) {
+                report.addMissingMatcher(expected.get(i));
+                ++missing;
+            }
+        }
+        if (listener != null) {
+            listener.reported(getStreamPath(), missing, System.nanoTime() - began);
+        }
+        return report;
+    }
+    
+    private ErrorReport expectMaximalImpl(List<? extends TupleMatcher> expected) throws StreamBaseException {
+        // keep a maximum matching between the actual tuples and the matchers they match
+        //  - each batch of tuples is added to the matching, then augmenting paths are 
+        //    searched for from the new tuples only
+        // afterwards 
+        //  - unassigned matchers were expected but missing
+        //  - unassigned tuples were unexpected extras
         
         ErrorReport report = makeErrorReport(expected.size());
         
         TupleMatcher[] exp = expected.toArray(new TupleMatcher[expected.size()]);
-        int remaining = exp.length;
+        MatcherIndex index = new MatcherIndex(exp);
+        BipartiteMatching matching = new BipartiteMatching(exp.length);
+        List<Tuple> seen = new ArrayList<Tuple>();
         
+        ExpectWindow window = openWindow(extras);
+        try {
+            List<Tuple> actual;
+            while (matching.size() < exp.length && (actual = window.next(exp.length - matching.size())) != null) {
+                long began = System.nanoTime();
+                long invoked = 0;
+                for (Tuple a : actual) {
+                    int[] candidates = index.candidates(a);
+                    invoked += candidates.length;
+                    int n = 0;
+                    for (int i : candidates) {
+                        if (exp[i].matches(a)) {
+                            candidates[n++] = i;
+                        }
+                    }
+                    matching.addTuple(Arrays.copyOf(candidates, n));
+                    seen.add(a);
+                }
+                matching.augment();
+                if (listener != null) {
+                    listener.evaluated(getStreamPath(), actual.size(), invoked, System.nanoTime() - began);
+                }
+                if (!window.isOpen()) {
+                    break;
+                }
+            }
+        } finally {
+            window.close();
+        }
         
-        if (automaticTimeout) {
-            dequeuer.drain();
+        long began = System.nanoTime();
+        for (int t = 0; t < seen.size(); ++t) {
+            int i = matching.matcherFor(t);
+            if (i >= 0) {
+                report.addFoundTuple(exp[i], seen.get(t));
+            } else {
+                report.addUnexpectedTuple(seen.get(t));
+            }
         }
-        do {
-            List<Tuple> actual = dequeuer.dequeue(remaining, finish - now, TimeUnit.MILLISECONDS);
-            if (automaticTimeout && actual.isEmpty()) {
-                break;
+        for (int i = 0; i < exp.length; ++i) {
+            if (!matching.isMatched(i)) {
+                report.addMissingMatcher(exp[i]);
             }
-            
-            NEXT_TUPLE: for (Tuple a : actual) {
-                for (int i = 0; i < exp.length; ++i) {
-                    TupleMatcher m = exp[i];
-                    if (m != null && m.matches(a)) {
-                        report.addFoundTuple(m, a);
-                        exp[i] = null;
-                        --remaining;
-                        continue NEXT_TUPLE;
+        }
+        if (listener != null) {
+            listener.reported(getStreamPath(), exp.length - matching.size(), System.nanoTime() - began);
+        }
+        return report;
+    }
+    
+    private ErrorReport expectWindowedImpl(List<? extends TupleMatcher> matchers) throws StreamBaseException {
+        // keep the next k outstanding matchers in a small buffer
+        //  - a tuple takes the first matcher in the buffer that it matches
+        //  - every matcher it passes over has been overtaken once more
+        //  - the usable part of the buffer ends at the first matcher that has been 
+        //    overtaken k - 1 times, so no matcher is overtaken k times by matches
+        //  - with errors on extras, an unmatched tuple overtakes the usable part of the 
+        //    buffer, and matchers that have then been overtaken k times are missing
+        // afterwards
+        //  - matchers still in the buffer or never reached were expected but missing
+        
+        ErrorReport report = makeErrorReport(matchers.size());
+        
+        int k = reorderWindow;
+        TupleMatcher[] buffer = new TupleMatcher[k];
+        int[] overtaken = new int[k];
+        int size = 0;
+        int next = 0;
+        int done = 0;
+        
+        ExpectWindow window = openWindow(extras);
+        try {
+            List<Tuple> actual;
+            while (done < matchers.size() && (actual = window.next(matchers.size() - done)) != null) {
+                long began = System.nanoTime();
+                long invoked = 0;
+                for (Tuple a : actual) {
+                    for (; size < k && next < matchers.size(); ++size, ++next) {
+                        buffer[size] = matchers.get(next);
+                        overtaken[size] = 0;
+                    }
+                    
+                    int usable = size;
+                    for (int j = 0; j < size; ++j) {
+                        if (overtaken[j] >= k - 1) {
+                            usable = j + 1;
+                            break;
+                        }
                     }
+                    
+                    int hit = -1;
+                    for (int j = 0; j < usable && hit < 0; ++j) {
+                        ++invoked;
+                        if (buffer[j].matches(a)) {
+                            hit = j;
+                        }
+                    }
+                    
+                    if (hit >= 0) {
+                        report.addFoundTuple(buffer[hit], a);
+                        for (int j = 0; j < hit; ++j) {
+                            ++overtaken[j];
+                        }
+                        System.arraycopy(buffer, hit + 1, buffer, hit, size - hit - 1);
+                        System.arraycopy(overtaken, hit + 1, overtaken, hit, size - hit - 1);
+                        --size;
+                        ++done;
+                    } else {
+                        report.addUnexpectedTuple(a);
+                        if (ExtraTuples.ERROR == extras) {
+                            int kept = 0;
+                            for (int j = 0; j < size; ++j) {
+                                if (j < usable && ++overtaken[j] >= k) {
+                                    report.addMissingMatcher(buffer[j]);
+                                    ++done;
+                                } else {
+                                    buffer[kept] = buffer[j];
+                                    overtaken[kept] = overtaken[j];
+                                    ++kept;
+                                }
+                            }
+                            size = kept;
+                        }
+                    }
+                }
+                if (listener != null) {
+                    listener.evaluated(getStreamPath(), actual.size(), invoked, System.nanoTime() - began);
+                }
+                if (!window.isOpen()) {
+                    break;
                 }
-                report.addUnexpectedTuple(a);
             }
-            now = System.currentTimeMillis();
-        } while (remaining > 0 && extras == ExtraTuples.IGNORE && (now <= finish || automaticTimeout));
+        } finally {
+            window.close();
+        }
         
-        for (TupleMatcher m : exp) {
-            if (m != null) {
-                report.addMissingMatcher(m);
-            }
+        long began = System.nanoTime();
+        int missing = matchers.size() - done;
+        for (int j = 0; j < size; ++j) {
+            report.addMissingMatcher(buffer[j]);
+        }
+        for (; next < matchers.size(); ++next) {
+            report.addMissingMatcher(matchers.get(next));
         }
-        report.throwIfError(extras);
+        if (listener != null) {
+            listener.reported(getStreamPath(), missing, System.nanoTime() - began);
+        }
+        return report;
     }
     
-    private void expectOrderedImpl(List<? extends TupleMatcher> matchers) throws StreamBaseException {
-        long now = System.currentTimeMillis();
-        long finish = now + timeUnit.toMillis(timeout);
+    private ErrorReport expectPerKeyImpl(List<? extends TupleMatcher> matchers) throws StreamBaseException {
+        // split the matchers into a queue for each key value, then match each tuple
+        // against the head of its own key's queue just as ordered matching does
+        
+        Map<Object, Queue<TupleMatcher>> queues = new LinkedHashMap<Object, Queue<TupleMatcher>>();
+        for (TupleMatcher m : matchers) {
+            Object key = MatcherIndex.literalOf(m, keyField);
+            if (key == MatcherIndex.NO_LITERAL) {
+                throw new IllegalArgumentException("every matcher must require a literal value for " + keyField);
+            }
+            Queue<TupleMatcher> q = queues.get(key);
+            if (q == null) {
+                q = new ArrayDeque<TupleMatcher>();
+                queues.put(key, q);
+            }
+            q.add(m);
+        }
         
         ErrorReport report = makeErrorReport(matchers.size());
         
-        int index = 0;
-        if (automaticTimeout) {
-            dequeuer.drain();
+        int done = 0;
+        ExpectWindow window = openWindow(extras);
+        try {
+            List<Tuple> actual;
+            while (done < matchers.size() && (actual = window.next(matchers.size() - done)) != null) {
+                long began = System.nanoTime();
+                long invoked = 0;
+                for (Tuple a : actual) {
+                    Queue<TupleMatcher> q;
+                    try {
+                        q = queues.get(a.getField(keyField));
+                    } catch (TupleException e) {
+                        // no such field, so it can't be one we expected
+                        q = null;
+                    }
+                    TupleMatcher m = q == null ? null : q.peek();
+                    
+                    if (m == null) {
+                        report.addUnexpectedTuple(a);
+                    } else {
+                        ++invoked;
+                        if (m.matches(a)) {
+                            report.addFoundTuple(m, a);
+                            q.remove();
+                            ++done;
+                        } else if (ExtraTuples.ERROR == extras) {
+                            report.addUnexpectedTuple(a);
+                            report.addMissingMatcher(m);
+                            q.remove();
+                            ++done;
+                        } else {
+                            report.addUnexpectedTuple(a);
+                        }
+                    }
+                }
+                if (listener != null) {
+                    listener.evaluated(getStreamPath(), actual.size(), invoked, System.nanoTime() - began);
+                }
+                if (!window.isOpen()) {
+                    break;
+                }
+            }
+        } finally {
+            window.close();
         }
-        do {
-            List<Tuple> actual = dequeuer.dequeue(matchers.size() - index, finish - now, TimeUnit.MILLISECONDS);
-            if (automaticTimeout && actual.isEmpty()) {
-                break;
+        
+        // anything left in a queue is missing
+        long began = System.nanoTime();
+        int missing = matchers.size() - done;
+        for (Queue<TupleMatcher> q : queues.values()) {
+            for (TupleMatcher m : q) {
+                report.addMissingMatcher(m);
+            }
+        }
+        if (listener != null) {
+            listener.reported(getStreamPath(), missing, System.nanoTime() - began);
+        }
+        
+        return report;
+    }
+    
+    private ErrorReport expectStreamingImpl(Iterator<? extends TupleMatcher> matchers) throws StreamBaseException {
+        // ordered matching over a window of matchers refilled from the iterator
+        //  - never ask for more tuples than there are matchers in the window, so 
+        //    tuples meant for a later call stay on the stream
+        //  - every tuple uses up a matcher when extras are errors, so a full batch
+        //    means the window may go on; a short one means the timeout passed
+        
+        Deque<TupleMatcher> pending = new ArrayDeque<TupleMatcher>();
+        List<Tuple> unexpectedTuples = new ArrayList<Tuple>();
+        List<TupleMatcher> missingMatchers = new ArrayList<TupleMatcher>();
+        int total = 0;
+        int unexpected = 0;
+        int missing = 0;
+        
+        ExpectWindow window = openWindow(extras);
+        try {
+            for (; pending.size() < STREAMING_WINDOW && matchers.hasNext(); ++total) {
+                pending.add(matchers.next());
             }
             
-            for (Tuple a : actual) {
-                TupleMatcher m = matchers.get(index);
+            List<Tuple> actual;
+            int n;
+            while ((n = pending.size()) > 0 && (actual = window.next(n, true)) != null) {
+                long began = System.nanoTime();
+                for (Tuple a : actual) {
+                    TupleMatcher m = pending.peek();
+                    if (m.matches(a)) {
+                        pending.remove();
+                        continue;
+                    }
+                    if (unexpected++ < MAX_STREAMING_FAILURES) {
+                        unexpectedTuples.add(a);
+                    }
+                    if (ExtraTuples.ERROR == extras) {
+                        if (missing++ < MAX_STREAMING_FAILURES) {
+                            missingMatchers.add(m);
+                        }
+                        pending.remove();
+                    }
+                }
+                if (listener != null) {
+                    listener.evaluated(getStreamPath(), actual.size(), actual.size(), System.nanoTime() - began);
+                }
+                for (; pending.size() < STREAMING_WINDOW && matchers.hasNext(); ++total) {
+                    pending.add(matchers.next());
+                }
+                if (!window.isOpen() && actual.size() < n) {
+                    break;
+                }
+            }
+        } finally {
+            window.close();
+        }
+        
+        // anything we didn't get from earlier is missing
+        long began = System.nanoTime();
+        int remaining = 0;
+        for (TupleMatcher m : pending) {
+            if (missing++ < MAX_STREAMING_FAILURES) {
+                missingMatchers.add(m);
+            }
+            ++remaining;
+        }
+        for (; matchers.hasNext(); ++total) {
+            TupleMatcher m = matchers.next();
+            if (missing++ < MAX_STREAMING_FAILURES) {
+                missingMatchers.add(m);
+            }
+            ++remaining;
+        }
+        
+        StringBuilder shown = new StringBuilder();
+        if (unexpected > MAX_STREAMING_FAILURES) {
+            shown.append("first ").append(MAX_STREAMING_FAILURES)
+                    .append(" of ").append(unexpected).append(" unexpected tuples");
+        }
+        if (missing > MAX_STREAMING_FAILURES) {
+            shown.append(shown.length() > 0 ? " and first " : "first ").append(MAX_STREAMING_FAILURES)
+                    .append(" of ").append(missing).append(" missing tuples");
+        }
+        ErrorReport report = shown.length() == 0 
+                ? makeErrorReport(total) 
+                : makeErrorReport(total, " (" + shown + " shown)");
+        for (Tuple t : unexpectedTuples) {
+            report.addUnexpectedTuple(t);
+        }
+        for (TupleMatcher m : missingMatchers) {
+            report.addMissingMatcher(m);
+        }
+        if (listener != null) {
+            listener.reported(getStreamPath(), remaining, System.nanoTime() - began);
+        }
+        return report;
+    }
+    
+    private ErrorReport expectOrderedImpl(List<? extends TupleMatcher> matchers) throws StreamBaseException {
+        ErrorReport report = makeErrorReport(matchers.size());
+        
+        int index = 0;
+        ExpectWindow window = openWindow(extras);
+        try {
+            List<Tuple> actual;
+            while (index < matchers.size() && (actual = window.next(matchers.size() - index)) != null) {
+                long began = System.nanoTime();
+                for (Tuple a : actual) {
+                    TupleMatcher m = matchers.get(index);
                 
-                boolean isExpected = m.matches(a);
-                if (isExpected) {
-                    report.addFoundTuple(m, a);
-                    ++index;
-                } else if (ExtraTuples.ERROR == extras) {
-                    report.addUnexpectedTuple(a);
-                    report.addMissingMatcher(m);
-                    ++index;
-                } else {
-                    report.addUnexpectedTuple(a);
+                    boolean isExpected = m.matches(a);
+                    if (isExpected) {
+                        report.addFoundTuple(m, a);
+                        ++index;
+                    } else if (ExtraTuples.ERROR == extras) {
+                        report.addUnexpectedTuple(a);
+                        report.addMissingMatcher(m);
+                        ++index;
+                    } else {
+                        report.addUnexpectedTuple(a);
+                    }
+                }
+                if (listener != null) {
+                    // each tuple is checked against exactly one matcher
+                    listener.evaluated(getStreamPath(), actual.size(), actual.size(), System.nanoTime() - began);
+                }
+                if (!window.isOpen()) {
+                    break;
                 }
             }
-            now = System.currentTimeMillis();
-        } while (index < matchers.size() && extras == ExtraTuples.IGNORE && (now <= finish || automaticTimeout));
+        } finally {
+            window.close();
+        }
         
         // anything we didn't get from earlier is missing
+        long began = System.nanoTime();
+        int missing = matchers.size() - index;
         for (; index < matchers.size(); ++index) {
             report.addMissingMatcher(matchers.get(index));
         }
+        if (listener != null) {
+            listener.reported(getStreamPath(), missing, System.nanoTime() - began);
+        }
         
-        report.throwIfError(extras);
+        return report;
     }
     
     /**
@@ -262,42 +1077,322 @@ public class StreamMatcher {
      * @throws AssertionError if the expected tuples do not match
      */
     public void expectTuples(int num) throws StreamBaseException, AssertionError {
-        if (automaticTimeout) {
-            dequeuer.drain();
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        ExpectWindow window = openWindow(ExtraTuples.ERROR);
+        try {
+            List<Tuple> actual;
+            while (tuples.size() < num && (actual = window.next(num - tuples.size())) != null) {
+                tuples.addAll(actual);
+                if (!window.isOpen()) {
+                    break;
+                }
+            }
+        } finally {
+            window.close();
         }
         
-        List<Tuple> tuples = dequeuer.dequeue(num, timeout, timeUnit);
-        
         ErrorReport report = makeErrorReport(num);
         for (Tuple t : tuples) {
             report.addFoundTuple(Matchers.anything(), t);
         }
         
+        long began = System.nanoTime();
+        int missing = Math.max(0, num - tuples.size());
         for (; num > tuples.size(); --num) {
             report.addMissingMatcher(Matchers.anything());
         }
+        if (listener != null) {
+            listener.reported(getStreamPath(), missing, System.nanoTime() - began);
+        }
         report.throwIfError(ExtraTuples.ERROR);
     }
     
+    /**
+     * Expect the stream to deliver <code>count</code> tuples, after any warm-up tuples, 
+     * at a sustained rate of at least <code>minTuplesPerSecond</code>.  The rate is 
+     * measured from when the first of the tuples is dequeued until the last is, so 
+     * time spent waiting for the stream to start does not count.  Every tuple must 
+     * arrive within the timeout of the one before it; with {@link #automaticTimeout()}
+     * the timeout is {@link Dequeuer#DEFAULT_TIMEOUT}.  Tuples are captured, checked
+     * against forbidden matchers and counted by the listener as in other expect calls,
+     * but are never prefetched, so that each is timed as it is dequeued.
+     * <p>
+     * Tuples that are already queued are dequeued together, so a stream that has 
+     * delivered them all before the call, or faster than can be timed, fails: the
+     * tuples must arrive over at least {@link #MIN_THROUGHPUT_INTERVAL_MILLIS}.
+     * @return the measured rate in tuples per second
+     * @throws StreamBaseException if an internal error occurs
+     * @throws AssertionError if too few tuples arrive, they arrive too close together 
+     *                        to measure, or the rate is too low
+     */
+    public double expectThroughput(int count, double minTuplesPerSecond) 
+            throws StreamBaseException, AssertionError {
+        if (count < 2) {
+            throw new IllegalArgumentException("at least 2 tuples are needed to measure a rate");
+        }
+        long timeoutMillis = verificationTimeoutMillis();
+        try {
+            // each wait gets the timeout, and tuples are timed as they are dequeued here
+            // rather than by a prefetcher
+            ExpectWindow window = openWindow(ExtraTuples.IGNORE, ExpectWindow.Mode.FIXED, timeoutMillis, 0);
+            try {
+                return measureThroughput(window, count, minTuplesPerSecond);
+            } finally {
+                window.close();
+            }
+        } finally {
+            // a completed call, whether or not the rate was met
+            if (listener != null) {
+                listener.reported(getStreamPath(), 0, 0);
+            }
+        }
+    }
+    
+    private double measureThroughput(ExpectWindow window, int count, double minTuplesPerSecond) 
+            throws StreamBaseException, AssertionError {
+        int discarded = 0;
+        while (discarded < warmupTuples) {
+            window.restart();
+            List<Tuple> batch = window.next(warmupTuples - discarded);
+            if (batch.isEmpty()) {
+                throw new AssertionError(throughputMessage(count, minTuplesPerSecond)
+                        + " but only " + discarded + " of the warm-up tuples arrived");
+            }
+            discarded += batch.size();
+        }
+        
+        // the first batch only marks the start, its tuples arrived before it was seen
+        long start = 0;
+        long last = 0;
+        int first = 0;
+        int received = 0;
+        while (received < count) {
+            window.restart();
+            List<Tuple> batch = window.next(1);
+            if (batch.isEmpty()) {
+                throw new AssertionError(throughputMessage(count, minTuplesPerSecond)
+                        + " but only " + received + " tuples arrived");
+            }
+            last = System.nanoTime();
+            int n = batch.size();
+            if (received + n < count) {
+                n += window.poll(count - received - n).size();
+            }
+            if (received == 0) {
+                start = last;
+                first = n;
+            }
+            received += n;
+        }
+        
+        if (last - start < TimeUnit.MILLISECONDS.toNanos(MIN_THROUGHPUT_INTERVAL_MILLIS)) {
+            throw new AssertionError(throughputMessage(count, minTuplesPerSecond)
+                    + String.format(" but they arrived within %.3f milliseconds, too close together to measure",
+                            (last - start) / 1e6));
+        }
+        double rate = (received - first) / ((last - start) / 1e9);
+        if (rate < minTuplesPerSecond) {
+            throw new AssertionError(throughputMessage(count, minTuplesPerSecond)
+                    + String.format(" but measured %.1f tuples per second", rate));
+        }
+        return rate;
+    }
+    
+    private String throughputMessage(int count, double minTuplesPerSecond) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("On ").append(dequeuer.getStreamProperties().getPath());
+        sb.append(" expecting ").append(count).append(" tuples");
+        if (warmupTuples > 0) {
+            sb.append(" after ").append(warmupTuples).append(" warm-up tuples");
+        }
+        sb.append(String.format(" at %.1f tuples per second or more", minTuplesPerSecond));
+        return sb.toString();
+    }
+    
     /**
      * Expect no tuples to become available on the stream for the entire timeout, ensuring 
-     * that all tuples current in flight will have time to finish.
+     * that all tuples current in flight will have time to finish.  With 
+     * {@link #quiescenceTimeout(long, TimeUnit)} it stops once the stream is quiet.
      * @throws StreamBaseException if an internal error occurs
      * @throws AssertionError if the expected tuples do not match
      */
     public void expectNothing() throws StreamBaseException, AssertionError {
-        dequeuer.drain();
-        List<Tuple> tuples = dequeuer.dequeue(1, timeout, timeUnit);
-        if (tuples.size() > 0) {
-            // if we got 1, then we should grab the rest of them too
-            tuples.addAll(dequeuer.dequeue(-1, 0, TimeUnit.MILLISECONDS));
+        collectNothing().throwIfError(ExtraTuples.ERROR);
+    }
+    
+    /**
+     * Start expecting tuples that match each of the given {@link TupleMatcher}s on
+     * another thread, as {@link #expectTuples(List)} would, while the caller goes on 
+     * enqueuing.  The future completes with the {@link ErrorReport} if the tuples
+     * matched, or exceptionally with the {@link ExpectTuplesFailure} or 
+     * {@link StreamBaseException} that {@link #expectTuples(List)} would have thrown.
+     */
+    public CompletableFuture<ErrorReport> expectTuplesAsync(TupleMatcher... matchers) {
+        return expectTuplesAsync(Arrays.asList(matchers));
+    }
+    
+    /**
+     * Start expecting tuples as {@link #expectTuplesAsync(TupleMatcher...)} does
+     */
+    public CompletableFuture<ErrorReport> expectTuplesAsync(List<? extends TupleMatcher> matchers) {
+        final List<TupleMatcher> exp = new ArrayList<TupleMatcher>(matchers);
+        return async(new Callable<ErrorReport>() {
+            @Override
+            public ErrorReport call() throws Exception {
+                ErrorReport report = collect(exp);
+                report.throwIfError(extras);
+                return report;
+            }
+        });
+    }
+    
+    /**
+     * Start expecting no tuples on another thread, as {@link #expectNothing()} would.
+     * The future completes as {@link #expectTuplesAsync(TupleMatcher...)} describes.
+     */
+    public CompletableFuture<ErrorReport> expectNothingAsync() {
+        return async(new Callable<ErrorReport>() {
+            @Override
+            public ErrorReport call() throws Exception {
+                ErrorReport report = collectNothing();
+                report.throwIfError(ExtraTuples.ERROR);
+                return report;
+            }
+        });
+    }
+    
+    private CompletableFuture<ErrorReport> async(final Callable<ErrorReport> call) {
+        final CompletableFuture<ErrorReport> res = new CompletableFuture<ErrorReport>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    res.complete(call.call());
+                } catch (Throwable t) {
+                    res.completeExceptionally(t);
+                }
+            }
+        });
+        return res;
+    }
+    
+    private ErrorReport collectNothing() throws StreamBaseException {
+        // an automatic window drains the stream itself
+        if (timeoutMode != ExpectWindow.Mode.AUTOMATIC) {
+            dequeuer.drain();
+        }
+        // the window captures what arrives, and stops early once a quiescent stream is
+        // quiet; there is nothing to match, so nothing is gained by prefetching
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        ExpectWindow window = openWindow(ExtraTuples.ERROR, timeoutMode, timeUnit.toMillis(timeout), 0);
+        try {
+            List<Tuple> actual = window.next(1);
+            if (actual != null && !actual.isEmpty()) {
+                // if we got 1, then we should grab the rest of them too
+                tuples.addAll(actual);
+                tuples.addAll(window.poll(-1));
+            }
+        } finally {
+            window.close();
         }
         
         ErrorReport report = makeErrorReport(0);
         for (Tuple t : tuples) {
             report.addUnexpectedTuple(t);
         }
-        report.throwIfError(ExtraTuples.ERROR);
+        if (listener != null) {
+            listener.reported(getStreamPath(), 0, 0);
+        }
+        return report;
+    }
+    
+    private ExpectWindow openWindow(ExtraTuples extras) throws StreamBaseException {
+        return openWindow(extras, timeoutMode, timeUnit.toMillis(timeout), prefetchCapacity);
+    }
+    
+    private ExpectWindow openWindow(ExtraTuples extras, ExpectWindow.Mode mode, long timeoutMillis, 
+            int prefetchCapacity) throws StreamBaseException {
+        if (forbidden == null && capture == null) {
+            return new ExpectWindow(dequeuer, mode, timeoutMillis, quietFactor, 
+                    extras, prefetchCapacity, listener);
+        }
+        
+        // check every tuple as it is dequeued, so a forbidden one fails straight away
+        final TupleMatcher[] checked = forbidden == null ? null : forbidden.clone();
+        final MatcherIndex index = forbidden == null ? null : new MatcherIndex(checked);
+        final TupleCapture c = capture == null ? null : openCapture();
+        return new ExpectWindow(dequeuer, mode, timeoutMillis, quietFactor, 
+                extras, prefetchCapacity, listener) {
+            @Override
+            boolean isSliced() {
+                // a forbidden tuple must not wait for the rest of a batch to arrive
+                return index != null || super.isSliced();
+            }
+            
+            @Override
+            List<Tuple> dequeue(int n, boolean grant, long waitMillis) throws StreamBaseException {
+                List<Tuple> actual = super.dequeue(n, grant, waitMillis);
+                if (actual != null && c != null) {
+                    capture(c, actual);
+                }
+                if (actual != null && index != null) {
+                    for (Tuple a : actual) {
+                        int i = index.find(a);
+                        if (i >= 0) {
+                            makeForbiddenReport(checked[i], a).throwIfError(ExtraTuples.ERROR);
+                        }
+                    }
+                }
+                return actual;
+            }
+            
+            @Override
+            void close() throws StreamBaseException {
+                super.close();
+                if (c != null) {
+                    closeCapture(c);
+                }
+            }
+        };
+    }
+    
+    private TupleCapture openCapture() throws StreamBaseException {
+        try {
+            return new TupleCapture(capture, getStreamPath());
+        } catch (IOException e) {
+            throw new StreamBaseException("Unable to open capture file " + capture, e);
+        }
+    }
+    
+    private void capture(TupleCapture c, List<Tuple> tuples) throws StreamBaseException {
+        long now = System.currentTimeMillis();
+        try {
+            for (Tuple t : tuples) {
+                c.write(t, now);
+            }
+        } catch (IOException e) {
+            throw new StreamBaseException("Unable to write capture file " + capture, e);
+        }
+    }
+    
+    private void closeCapture(TupleCapture c) throws StreamBaseException {
+        try {
+            c.close();
+        } catch (IOException e) {
+            throw new StreamBaseException("Unable to write capture file " + capture, e);
+        }
+    }
+    
+    private ErrorReport makeForbiddenReport(TupleMatcher m, Tuple a) {
+        Gson gson = new Gson();
+        StringBuilder sb = new StringBuilder();
+        sb.append("On ").append(dequeuer.getStreamProperties().getPath());
+        sb.append(" expecting no tuples matching ").append(gson.toJson(m.describe(gson)));
+        sb.append(':');
+        
+        ErrorReport report = reportFactory.newErrorReport(sb.toString());
+        report.addUnexpectedTuple(a);
+        return report;
     }
     
     /**
@@ -305,6 +1400,15 @@ public class StreamMatcher {
      * this method.
      */
     protected ErrorReport makeErrorReport(int numTuples) {
+        return makeErrorReport(numTuples, "");
+    }
+    
+    /**
+     * make an error report with <code>note</code> appended to the description, 
+     * used when only some of the failures are kept.  Subclasses customizing the 
+     * error reporting should override this method too.
+     */
+    protected ErrorReport makeErrorReport(int numTuples, String note) {
         StringBuilder sb = new StringBuilder();
 
         sb.append("On ").append(dequeuer.getStreamProperties().getPath());
@@ -317,13 +1421,24 @@ public class StreamMatcher {
             } else {
                 sb.append(numTuples).append(" tuples");
             }
-            sb.append(ordering == Ordering.ORDERED ? " in order" : " in any order");
+            if (ordering == Ordering.ORDERED) {
+                sb.append(" in order");
+            } else if (ordering == Ordering.WINDOWED) {
+                sb.append(" in order give or take ").append(reorderWindow - 1).append(" places");
+            } else if (ordering == Ordering.PER_KEY) {
+                sb.append(" in order for each value of ").append(keyField);
+            } else {
+                sb.append(" in any order");
+            }
             if (extras == ExtraTuples.IGNORE) {
                 sb.append(" ignoring extra tuples");
             }
         }
         sb.append(" within ").append(timeout).append(" ").append(timeUnit.toString().toLowerCase());
-        sb.append(':');
+        if (timeoutMode == ExpectWindow.Mode.QUIESCENT) {
+            sb.append(" or until the stream is quiet");
+        }
+        sb.append(note).append(':');
 
         return reportFactory.newErrorReport(sb.toString());
     }
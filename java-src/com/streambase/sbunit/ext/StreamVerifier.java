@@ -0,0 +1,453 @@
+package com.streambase.sbunit.ext;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.streambase.sb.StreamBaseException;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.unittest.Dequeuer;
+import com.streambase.sbunit.ext.StreamMatcher.ExtraTuples;
+import com.streambase.sbunit.ext.StreamMatcher.Ordering;
+
+/**
+ * {@link StreamVerifier} continuously drains a stream on its own thread, checking
+ * tuples against a rolling set of expectations as they arrive.  It is intended for
+ * long running soak tests, where the test thread keeps adding expectations while
+ * it drives input into the application.  For example:
+ * <p>
+ * <pre>
+ * StreamVerifier verifier = StreamMatcher.on(dequeuer)
+ *          .ordering(Ordering.UNORDERED)
+ *          .timeout(5, TimeUnit.SECONDS)
+ *          .verifier(10000);
+ * verifier.start();
+ * while (soaking) {
+ *     enqueuer.enqueue(...);
+ *     verifier.expect(...);
+ *     verifier.check();
+ * }
+ * verifier.verify();
+ * verifier.stop();
+ * </pre>
+ * <p>
+ * Each expectation must be met within the {@link StreamMatcher}'s timeout of being
+ * added.  A tuple that arrives before the expectation it meets has been added is 
+ * held for the same timeout, so output may be dequeued by the verifier before or 
+ * after the <code>expect()</code> call it belongs to.  Held tuples that meet no 
+ * expectation in time are unexpected.
+ * <p>
+ * Matched tuples are only counted, at most <code>maxOutstanding</code> expectations
+ * and held tuples are kept at once, and only the first failures are kept for 
+ * reporting, so memory use is bounded regardless of how long the verifier runs.
+ * <p>
+ * Only {@link Ordering#ORDERED} and {@link Ordering#UNORDERED} are supported.
+ */
+public class StreamVerifier {
+    /**
+     * the number of failures kept for the error report, further failures are only counted
+     */
+    public static final int MAX_REPORTED_FAILURES = 100;
+
+    private static final long POLL_MILLIS = 100;
+    
+    /**
+     * the least number of expectation slots allocated at once
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * a tuple that arrived before any expectation it meets
+     */
+    private static class Arrival {
+        final Tuple tuple;
+        final long deadline;
+
+        Arrival(Tuple tuple, long deadline) {
+            this.tuple = tuple;
+            this.deadline = deadline;
+        }
+    }
+
+    private final Dequeuer dequeuer;
+    private final Ordering ordering;
+    private final ExtraTuples extras;
+    private final long timeoutMillis;
+    private final int maxOutstanding;
+    private final ErrorReportFactory reportFactory;
+
+    // the outstanding expectations in the order they were added, with 'null' for
+    // those that have been met or have expired
+    //  - slots[head..size) holds every outstanding expectation, and live counts them
+    //  - the index covers every slot once built; it is built when a tuple first needs
+    //    it, so its key fields are chosen from the expectations rather than from
+    //    empty slots, and dropped to be built again when the slots are compacted
+    private TupleMatcher[] slots = new TupleMatcher[MIN_CAPACITY];
+    private long[] deadlines = new long[MIN_CAPACITY];
+    private int head = 0;
+    private int size = 0;
+    private int live = 0;
+    private MatcherIndex index = null;
+    
+    private final ArrayDeque<Arrival> early = new ArrayDeque<Arrival>();
+    private final List<Tuple> unexpectedTuples = new ArrayList<Tuple>();
+    private final List<TupleMatcher> missingMatchers = new ArrayList<TupleMatcher>();
+    private long matched = 0;
+    private long failures = 0;
+    private Throwable error = null;
+    private volatile boolean running = false;
+    private Thread thread = null;
+
+    StreamVerifier(Dequeuer dequeuer, Ordering ordering, ExtraTuples extras, long timeoutMillis,
+            int maxOutstanding, ErrorReportFactory reportFactory) {
+        if (maxOutstanding <= 0) {
+            throw new IllegalArgumentException("maxOutstanding must be positive");
+        }
+        if (ordering != Ordering.ORDERED && ordering != Ordering.UNORDERED) {
+            throw new IllegalArgumentException("StreamVerifier does not support " + ordering + " ordering");
+        }
+        this.dequeuer = dequeuer;
+        this.ordering = ordering;
+        this.extras = extras;
+        this.timeoutMillis = timeoutMillis;
+        this.maxOutstanding = maxOutstanding;
+        this.reportFactory = reportFactory;
+    }
+    
+    /**
+     * start draining the stream on a background thread.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("StreamVerifier has already been started");
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "StreamVerifier " + dequeuer.getStreamProperties().getPath());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * stop draining the stream, waiting for the background thread to finish.
+     * Expectations that are still outstanding are left as they are.
+     */
+    public void stop() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            notifyAll();
+        }
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    /**
+     * Add expectations for tuples that match each of the given {@link TupleMatcher}s.
+     * Each is first checked against the tuples held for having arrived early.
+     * Blocks while the verifier already holds <code>maxOutstanding</code> expectations
+     * and is running.
+     */
+    public void expect(TupleMatcher... matchers) throws StreamBaseException, InterruptedException {
+        for (TupleMatcher m : matchers) {
+            synchronized (this) {
+                while (live >= maxOutstanding && running) {
+                    wait(POLL_MILLIS);
+                }
+                if (ordering == Ordering.ORDERED ? !meetOrdered(m) : !meetUnordered(m)) {
+                    append(m, System.currentTimeMillis() + timeoutMillis);
+                }
+            }
+        }
+    }
+
+    /**
+     * get whether any failure has been found so far
+     */
+    public synchronized boolean isFailed() {
+        return failures > 0 || error != null;
+    }
+
+    /**
+     * get the number of tuples that have met an expectation so far
+     */
+    public synchronized long getMatchedCount() {
+        return matched;
+    }
+
+    /**
+     * get the number of failures found so far, including those not kept in the report
+     */
+    public synchronized long getFailureCount() {
+        return failures;
+    }
+
+    /**
+     * get the number of expectations that have neither been met nor timed out
+     */
+    public synchronized int getOutstandingCount() {
+        return live;
+    }
+
+    /**
+     * Fail immediately if any failure has been found so far.
+     * @throws StreamBaseException if the background thread failed, either dequeuing
+     *                             or because a matcher threw
+     * @throws AssertionError if an expectation timed out or an unexpected tuple arrived
+     */
+    public synchronized void check() throws StreamBaseException, AssertionError {
+        if (error != null) {
+            throw new StreamBaseException(error);
+        }
+        if (failures > 0) {
+            throw new ExpectTuplesFailure(makeErrorReport());
+        }
+    }
+    
+    /**
+     * Wait until every expectation added so far has either been met or timed out,
+     * and every tuple held for having arrived early has either met one or become 
+     * unexpected, then fail if any failure has been found.
+     * @throws StreamBaseException if the background thread failed, either dequeuing
+     *                             or because a matcher threw
+     * @throws AssertionError if an expectation timed out or an unexpected tuple arrived
+     * @throws IllegalStateException if the verifier was stopped with expectations
+     *                               outstanding
+     */
+    public void verify() throws StreamBaseException, AssertionError, InterruptedException {
+        synchronized (this) {
+            while (isSettling() && running && error == null) {
+                wait(POLL_MILLIS);
+            }
+            if (live > 0 && error == null) {
+                throw new IllegalStateException("StreamVerifier is not running");
+            }
+        }
+        check();
+    }
+
+    private void drainLoop() {
+        try {
+            while (running) {
+                List<Tuple> actual = dequeuer.dequeue(-1, POLL_MILLIS, TimeUnit.MILLISECONDS);
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    for (Tuple a : actual) {
+                        if (ordering == Ordering.ORDERED) {
+                            matchOrdered(a, now);
+                        } else {
+                            matchUnordered(a, now);
+                        }
+                    }
+                    expire(now);
+                    notifyAll();
+                }
+            }
+        } catch (Throwable e) {
+            // whatever went wrong, waiting callers must not wait for a thread that is gone
+            synchronized (this) {
+                error = e;
+                running = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * get whether the outcome of some expectation or held tuple is still to be decided
+     */
+    private boolean isSettling() {
+        return live > 0 || (extras == ExtraTuples.ERROR && !early.isEmpty());
+    }
+
+    private void matchOrdered(Tuple a, long now) throws StreamBaseException {
+        int first = firstOutstanding();
+        if (first < 0) {
+            hold(a, now);
+        } else if (slots[first].matches(a)) {
+            remove(first);
+            ++matched;
+        } else if (extras == ExtraTuples.ERROR) {
+            addUnexpectedTuple(a);
+            addMissingMatcher(slots[first]);
+            remove(first);
+        }
+    }
+
+    private void matchUnordered(Tuple a, long now) throws StreamBaseException {
+        if (live == 0) {
+            hold(a, now);
+            return;
+        }
+        if (index == null) {
+            index = new MatcherIndex(slots);
+        }
+        int found = index.find(a);
+        if (found >= 0) {
+            remove(found);
+            ++matched;
+        } else {
+            hold(a, now);
+        }
+    }
+
+    /**
+     * meet a new expectation with the next held tuple, if there is one.  Tuples are
+     * only held when nothing is outstanding, so the next one is the tuple it expects.
+     * @return whether the expectation has been dealt with
+     */
+    private boolean meetOrdered(TupleMatcher m) throws StreamBaseException {
+        while (!early.isEmpty()) {
+            Tuple a = early.remove().tuple;
+            if (m.matches(a)) {
+                ++matched;
+                return true;
+            } else if (extras == ExtraTuples.ERROR) {
+                addUnexpectedTuple(a);
+                addMissingMatcher(m);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * meet a new expectation with the first held tuple that matches it
+     * @return whether the expectation has been met
+     */
+    private boolean meetUnordered(TupleMatcher m) throws StreamBaseException {
+        for (Iterator<Arrival> it = early.iterator(); it.hasNext(); ) {
+            if (m.matches(it.next().tuple)) {
+                it.remove();
+                ++matched;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void hold(Tuple a, long now) {
+        early.add(new Arrival(a, now + timeoutMillis));
+        if (early.size() > maxOutstanding) {
+            unheld(early.remove().tuple);
+        }
+    }
+
+    private void unheld(Tuple a) {
+        if (extras == ExtraTuples.ERROR) {
+            addUnexpectedTuple(a);
+        }
+    }
+
+    private void expire(long now) {
+        // expectations and tuples are each added in order, so their deadlines are too
+        int first;
+        while ((first = firstOutstanding()) >= 0 && deadlines[first] < now) {
+            addMissingMatcher(slots[first]);
+            remove(first);
+        }
+        while (!early.isEmpty() && early.peek().deadline < now) {
+            unheld(early.remove().tuple);
+        }
+    }
+
+    /**
+     * @return the slot of the oldest outstanding expectation, or -1 if there is none
+     */
+    private int firstOutstanding() {
+        while (head < size && slots[head] == null) {
+            ++head;
+        }
+        return head < size ? head : -1;
+    }
+
+    private void append(TupleMatcher m, long deadline) {
+        if (size == slots.length) {
+            compact();
+        }
+        slots[size] = m;
+        deadlines[size] = deadline;
+        if (index != null) {
+            index.add(size);
+        }
+        ++size;
+        ++live;
+    }
+
+    private void remove(int slot) {
+        slots[slot] = null;
+        --live;
+    }
+
+    /**
+     * move the outstanding expectations to the front of fresh slots, with room for
+     * at least as many again, to be indexed afresh when a tuple next arrives.
+     */
+    private void compact() {
+        int capacity = Math.max(MIN_CAPACITY, 2 * live);
+        TupleMatcher[] newSlots = new TupleMatcher[capacity];
+        long[] newDeadlines = new long[capacity];
+        int n = 0;
+        for (int i = head; i < size; ++i) {
+            if (slots[i] != null) {
+                newSlots[n] = slots[i];
+                newDeadlines[n] = deadlines[i];
+                ++n;
+            }
+        }
+        slots = newSlots;
+        deadlines = newDeadlines;
+        head = 0;
+        size = n;
+        index = null;
+    }
+
+    private void addUnexpectedTuple(Tuple a) {
+        if (failures++ < MAX_REPORTED_FAILURES) {
+            unexpectedTuples.add(a);
+        }
+    }
+
+    private void addMissingMatcher(TupleMatcher m) {
+        if (failures++ < MAX_REPORTED_FAILURES) {
+            missingMatchers.add(m);
+        }
+    }
+    
+    /**
+     * build a report of the failures so far; the background thread keeps running,
+     * so the report is a snapshot rather than the live state.
+     */
+    private ErrorReport makeErrorReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("On ").append(dequeuer.getStreamProperties().getPath());
+        sb.append(" continuously expecting tuples");
+        sb.append(ordering == Ordering.ORDERED ? " in order" : " in any order");
+        if (extras == ExtraTuples.IGNORE) {
+            sb.append(" ignoring extra tuples");
+        }
+        sb.append(" each within ").append(timeoutMillis).append(" milliseconds");
+        sb.append(" (").append(matched).append(" matched, ").append(failures).append(" failed");
+        if (failures > MAX_REPORTED_FAILURES) {
+            sb.append(", first ").append(MAX_REPORTED_FAILURES).append(" shown");
+        }
+        sb.append("):");
+        
+        ErrorReport report = reportFactory.newErrorReport(sb.toString());
+        for (Tuple t : unexpectedTuples) {
+            report.addUnexpectedTuple(t);
+        }
+        for (TupleMatcher m : missingMatchers) {
+            report.addMissingMatcher(m);
+        }
+        return report;
+    }
+}
@@ -0,0 +1,173 @@
+package com.streambase.sbunit.ext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import com.streambase.sb.Schema;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleJSONUtil;
+import com.streambase.sb.util.Xml;
+
+/**
+ * {@link TupleCapture} appends dequeued tuples to a capture file through a memory
+ * mapped buffer, to be read back by a {@link ReplayDequeuer}.
+ * <p>
+ * A capture file starts with a header of {@link #MAGIC}, {@link #VERSION} and the
+ * path of the captured stream.  It is followed by records, each starting with a
+ * kind byte:
+ * <ul>
+ * <li>{@link #SCHEMA}: the XML of the schema of the tuples that follow</li>
+ * <li>{@link #TUPLE}: the arrival time in milliseconds and the tuple as JSON</li>
+ * <li>{@link #END}: the end of the records, which is what the zero filled rest of
+ * the last mapped region holds when a capture is never closed</li>
+ * </ul>
+ * Strings are written as their length in bytes followed by their UTF-8 encoding.
+ * A schema is only written when it differs from that of the previous tuple, so the
+ * common case costs just the tuple itself.
+ * <p>
+ * Captures append to the file, so several expect*() calls build up one capture.
+ * {@link TupleCapture}s are not thread safe, and each stream should be captured
+ * to its own file.
+ */
+class TupleCapture {
+    static final int MAGIC = 0x53425543; // "SBUC"
+    static final int VERSION = 1;
+    static final byte END = 0;
+    static final byte SCHEMA = 1;
+    static final byte TUPLE = 2;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * the size of each region of the file that is mapped at once
+     */
+    private static final int REGION_SIZE = 1 << 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long regionStart;
+    private Schema lastSchema = null;
+
+    /**
+     * open a capture file for appending, writing its header if it is empty.
+     * @param stream  the path of the stream being captured
+     */
+    TupleCapture(File path, String stream) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+        try {
+            long length = channel.size();
+            if (length > 0) {
+                if (length < 8 || file.readInt() != MAGIC) {
+                    throw new IOException(path + " is not a capture file");
+                }
+                if (file.readInt() != VERSION) {
+                    throw new IOException(path + " was captured by an unknown version");
+                }
+                length = endOfRecords(path, length);
+            }
+            map(length, REGION_SIZE);
+            if (length == 0) {
+                buffer.putInt(MAGIC);
+                buffer.putInt(VERSION);
+                putString(stream);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * append a tuple, along with its schema if that has changed.
+     */
+    void write(Tuple t, long arrivalMillis) throws IOException {
+        Schema schema = t.getSchema();
+        if (schema != lastSchema) {
+            byte[] xml = Xml.serialize(schema.as_xml()).getBytes(UTF8);
+            reserve(1 + 4 + xml.length);
+            buffer.put(SCHEMA);
+            buffer.putInt(xml.length);
+            buffer.put(xml);
+            lastSchema = schema;
+        }
+
+        byte[] json = TupleJSONUtil.toJSONMapString(t).getBytes(UTF8);
+        reserve(1 + 8 + 4 + json.length);
+        buffer.put(TUPLE);
+        buffer.putLong(arrivalMillis);
+        buffer.putInt(json.length);
+        buffer.put(json);
+    }
+
+    /**
+     * flush the capture and trim the file to what was written.
+     */
+    void close() throws IOException {
+        try {
+            long end = regionStart + buffer.position();
+            buffer.force();
+            buffer = null;
+            channel.truncate(end);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * find where the records of an existing capture end, so that appending 
+     * overwrites any zero padding left by a capture that was never closed.
+     */
+    private long endOfRecords(File path, long length) throws IOException {
+        // a closed capture is trimmed, and never ends with a zero byte
+        file.seek(length - 1);
+        if (file.readByte() != END) {
+            return length;
+        }
+        
+        long pos = 8;
+        file.seek(pos);
+        pos += 4 + file.readInt();
+        while (pos < length) {
+            file.seek(pos);
+            byte kind = file.readByte();
+            if (kind == END) {
+                break;
+            } else if (kind == SCHEMA) {
+                pos += 1 + 4 + file.readInt();
+            } else if (kind == TUPLE) {
+                file.readLong();
+                pos += 1 + 8 + 4 + file.readInt();
+            } else {
+                throw new IOException(path + " has an unknown record kind " + kind);
+            }
+        }
+        return Math.min(pos, length);
+    }
+
+    private void putString(String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        reserve(4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            map(regionStart + buffer.position(), Math.max(REGION_SIZE, bytes));
+        }
+    }
+
+    private void map(long start, int size) throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        }
+        // mapping past the end grows the file, which close() trims again
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        regionStart = start;
+    }
+}
@@ -8,6 +8,11 @@ import com.streambase.sb.TupleException;
 /**
  * {@link TupleMatcher}s are used by {@link StreamMatcher} to determine if
  * a tuple matches as an expected tuple or is an unexpected tuple.
+ * <p>
+ * The matchers in <code>com.streambase.sbunit.ext.matchers</code> are equal when
+ * they match the same way, so that unordered matching can check equal matchers
+ * once rather than once each.  Other implementations may do the same by overriding
+ * {@link Object#equals(Object)} and {@link Object#hashCode()}.
  */
 public interface TupleMatcher {
     
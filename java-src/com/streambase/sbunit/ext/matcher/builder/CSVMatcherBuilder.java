@@ -9,7 +9,6 @@ import com.streambase.sb.StreamBaseException;
 import com.streambase.sb.Tuple;
 import com.streambase.sb.adapter.common.csv.CSVTupleReader;
 import com.streambase.sb.adapter.common.csv.RFC4180FormatException;
-import com.streambase.sbunit.ext.Matchers;
 import com.streambase.sbunit.ext.matchers.FieldBasedTupleMatcher;
 
 
@@ -57,20 +56,20 @@ public class CSVMatcherBuilder {
 			throw new StreamBaseException(MessageFormat.format("field lengh {0} != column length {1}", fieldNames.length, columns.length));
 		}
 		
-		FieldBasedTupleMatcher m = Matchers.emptyFieldMatcher();
+		FieldBasedTupleMatcher.Builder m = FieldBasedTupleMatcher.builder();
 		
 		for(int i=0; i < fieldNames.length; ++i) {
 			if(columns[i] == null || columns[i].length() == 0) {
-				m = m.requireNull(fieldNames[i]);
+				m.requireNull(fieldNames[i]);
 			} else {
 				Tuple t = s.createTuple();
 				
 				t.setField(fieldNames[i], columns[i]);
-				m = m.require(fieldNames[i], t.getField(fieldNames[i]));
+				m.require(fieldNames[i], t.getField(fieldNames[i]));
 			}
 		}
 		
-		return m;
+		return m.build();
 	}
 	
     /**
@@ -22,7 +22,6 @@ import com.streambase.sb.CompleteDataType;
 import com.streambase.sb.DataType;
 import com.streambase.sb.StreamBaseException;
 import com.streambase.sb.Tuple;
-import com.streambase.sbunit.ext.Matchers;
 import com.streambase.sbunit.ext.matchers.FieldBasedTupleMatcher;
 import com.streambase.sb.internal.CoercedFunction;
 import com.streambase.sb.internal.SchemaJSONUtil;
@@ -50,6 +49,7 @@ import com.alibaba.fastjson.JSONObject;
 public class JSONMatcherBuilder { 
 	private final Schema completeSchema;
 	private FieldBasedTupleMatcher matcher;
+	private FieldBasedTupleMatcher.Builder builder; // the matcher being built by makeMatcher()
 	private boolean ignoreMissingFields = false;
 	SimpleDateFormat sdft = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss.SSSZ");
 	ArrayList<String> subFieldHandled = new ArrayList<String>();   // list of field that are of type "tuple"; don't want to "match.require" their parent, in case matching is "sparse"
@@ -75,10 +75,11 @@ public class JSONMatcherBuilder {
 	 * @throws StreamBaseException
 	 */
 	public synchronized FieldBasedTupleMatcher makeMatcher(String columns) throws StreamBaseException {		
-		matcher = Matchers.emptyFieldMatcher();  // create an empty field matcher
+		builder = FieldBasedTupleMatcher.builder();  // create an empty field matcher
 		Tuple tuple = completeSchema.createTuple(); // parallel tuple for sub-tuple processing
 		Object jsonObject = parseJSONString(columns);	// create JSON object from string	
 		setTupleAndMatcher( tuple, jsonObject, null ); // fill in values, throw away the scratch tuple  
+		matcher = builder.build();
 		return matcher;
 	}
 	
@@ -145,13 +146,11 @@ public class JSONMatcherBuilder {
                 			o = new Timestamp(sdft.parse((String)o));
                 		}
                 		if(o == null) {
-                			if ((! handlingAlist) && (! subFieldHandled.contains(fullFieldName)) ){
-                				matcher.requireNull(fullFieldName); // do not place into matcher if this is part of a list array, that is handled later
-                			}
+                			// null values are not required, so these fields are left unconstrained
                 			tuple.setNull(fieldName);
                 		} else {
                 			if ((! handlingAlist) && (! subFieldHandled.contains(fullFieldName)) ) {
-                				matcher = matcher.require( fullFieldName, o );
+                				builder.require( fullFieldName, o );
                 			}
                 			tuple.setField( fieldName, o );
                 		}
@@ -163,8 +162,8 @@ public class JSONMatcherBuilder {
                 } else 
                 	if ( ignoreMissingFields ) { 
                 	// TODO: fix "bug" in FieldBasedTupleMatcher: ignore will only work if field is first defined (.requireNull() is one way) 
-                	matcher = matcher.requireNull(fullFieldName);  // this fixes the bug where ".ignore()" expects the matcher field to already be defined
-                	matcher = matcher.ignore(fullFieldName);
+                	builder.requireNull(fullFieldName);  // this fixes the bug where ".ignore()" expects the matcher field to already be defined
+                	builder.ignore(fullFieldName);
                 	tuple.setNull( fieldName );
                 } else {
                 	missingInJSONString.add( fullFieldName );
@@ -214,9 +213,9 @@ public class JSONMatcherBuilder {
                 Object jsonField = jsonArray.get(i);
                 Schema.Field field = subSchema.getField(i);
                 if (jsonField == null) {
-                	matcher = matcher.require(field.getName(), matcher);
+                	builder.require(field.getName(), builder.build());
                 } else {
-                	matcher = matcher.ignore(field.getName());
+                	builder.ignore(field.getName());
                 }
             }
         } else {
@@ -23,6 +23,16 @@ public class AnythingMatcher implements TupleMatcher, ValueMatcher {
         return true;
     }
     
+    @Override
+    public boolean equals(Object o) {
+        return o != null && o.getClass() == getClass();
+    }
+    
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         return gson.toJsonTree("<anything>");
@@ -0,0 +1,269 @@
+package com.streambase.sbunit.ext.matchers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+import com.streambase.sbunit.ext.TupleMatcher;
+import com.streambase.sbunit.ext.ValueMatcher;
+import com.streambase.sbunit.ext.matchers.tuple.AllTupleMatcher;
+import com.streambase.sbunit.ext.matchers.tuple.AnyTupleMatcher;
+import com.streambase.sbunit.ext.matchers.tuple.NotTupleMatcher;
+import com.streambase.sbunit.ext.matchers.value.AllValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.AnyValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.ListValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.NotValueMatcher;
+
+/**
+ * {@link CompiledTupleMatcher} evaluates a finished tree of matchers through a single
+ * composed {@link MethodHandle}, rather than through an interface call at every level
+ * of the tree.
+ * <p>
+ * The all, any and not combinators, for tuples and for values, become method handle
+ * combinators, so they short-circuit exactly as the matchers they replace.
+ * {@link AnythingMatcher}s and {@link NothingMatcher}s become constants.  Every other
+ * matcher is called directly on its own class where that class is public, which
+ * lets the JIT inline the call.  The field matchers of a
+ * {@link FieldBasedTupleMatcher}, and the element matchers of a
+ * {@link ListValueMatcher}, are compiled in the same way.
+ * <p>
+ * Each compiled tree is held as a constant by a small class of its own, which lets
+ * the JIT inline the whole tree into one method, so compile a matcher once and 
+ * reuse it rather than compiling it for every use.
+ * <p>
+ * Compiling does not change which tuples match, and {@link #describe(Gson)} gives
+ * the same description as the original matcher.  Matchers which are compiled into
+ * the tree are not copied, so they must not change afterwards.
+ */
+public class CompiledTupleMatcher implements TupleMatcher {
+    private static final MethodType TUPLE_TYPE = MethodType.methodType(boolean.class, Tuple.class);
+    private static final MethodType VALUE_TYPE = MethodType.methodType(boolean.class, Object.class);
+    private static final MethodHandle TUPLE_MATCHES;
+    private static final MethodHandle VALUE_MATCHES;
+    private static final MethodHandle NOT;
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            TUPLE_MATCHES = lookup.findVirtual(TupleMatcher.class, "matches", TUPLE_TYPE);
+            VALUE_MATCHES = lookup.findVirtual(ValueMatcher.class, "matches", VALUE_TYPE);
+            NOT = lookup.findStatic(CompiledTupleMatcher.class, "not",
+                    MethodType.methodType(boolean.class, boolean.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final TupleMatcher original;
+    // (Tuple)boolean
+    private final MethodHandle handle;
+    private final Predicate<Object> tree;
+
+    private CompiledTupleMatcher(TupleMatcher original, MethodHandle handle) {
+        this.original = original;
+        this.handle = handle;
+        this.tree = ConstantHandleLoader.bind(handle.asType(VALUE_TYPE));
+    }
+
+    /**
+     * compile a {@link TupleMatcher} and all of the matchers within it.
+     */
+    public static CompiledTupleMatcher compile(TupleMatcher m) {
+        if (m instanceof CompiledTupleMatcher) {
+            return (CompiledTupleMatcher) m;
+        }
+        return new CompiledTupleMatcher(m, tupleHandle(m));
+    }
+
+    /**
+     * get the matcher this was compiled from
+     */
+    public TupleMatcher getOriginal() {
+        return original;
+    }
+
+    @Override
+    public boolean matches(Tuple t) throws TupleException {
+        // the tree throws whatever its matchers throw
+        return tree.test(t);
+    }
+
+    /**
+     * compiled matchers are equal if the matchers they were compiled from are.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CompiledTupleMatcher && original.equals(((CompiledTupleMatcher) o).original);
+    }
+
+    @Override
+    public int hashCode() {
+        return original.hashCode();
+    }
+
+    @Override
+    public JsonElement describe(Gson gson) {
+        return original.describe(gson);
+    }
+
+    private static MethodHandle tupleHandle(TupleMatcher m) {
+        if (m instanceof CompiledTupleMatcher) {
+            return ((CompiledTupleMatcher) m).handle;
+        } else if (m instanceof AnythingMatcher) {
+            return constant(true, Tuple.class);
+        } else if (m instanceof NothingMatcher) {
+            return constant(false, Tuple.class);
+        } else if (m instanceof AllTupleMatcher) {
+            List<MethodHandle> parts = new ArrayList<MethodHandle>();
+            for (TupleMatcher part : ((AllTupleMatcher) m).getMatchers()) {
+                parts.add(tupleHandle(part));
+            }
+            return all(parts, Tuple.class);
+        } else if (m instanceof AnyTupleMatcher) {
+            List<MethodHandle> parts = new ArrayList<MethodHandle>();
+            for (TupleMatcher part : ((AnyTupleMatcher) m).getMatchers()) {
+                parts.add(tupleHandle(part));
+            }
+            return any(parts, Tuple.class);
+        } else if (m instanceof NotTupleMatcher) {
+            return MethodHandles.filterReturnValue(tupleHandle(((NotTupleMatcher) m).getMatcher()), NOT);
+        } else if (m instanceof FieldBasedTupleMatcher) {
+            m = compileFields((FieldBasedTupleMatcher) m);
+        }
+        return bind(m, TUPLE_TYPE, TUPLE_MATCHES);
+    }
+
+    private static MethodHandle valueHandle(ValueMatcher m) {
+        if (m instanceof CompiledValueMatcher) {
+            return ((CompiledValueMatcher) m).handle;
+        } else if (m instanceof AnythingMatcher) {
+            return constant(true, Object.class);
+        } else if (m instanceof NothingMatcher) {
+            return constant(false, Object.class);
+        } else if (m instanceof AllValueMatcher) {
+            List<MethodHandle> parts = new ArrayList<MethodHandle>();
+            for (ValueMatcher part : ((AllValueMatcher) m).getMatchers()) {
+                parts.add(valueHandle(part));
+            }
+            return all(parts, Object.class);
+        } else if (m instanceof AnyValueMatcher) {
+            List<MethodHandle> parts = new ArrayList<MethodHandle>();
+            for (ValueMatcher part : ((AnyValueMatcher) m).getMatchers()) {
+                parts.add(valueHandle(part));
+            }
+            return any(parts, Object.class);
+        } else if (m instanceof NotValueMatcher) {
+            return MethodHandles.filterReturnValue(valueHandle(((NotValueMatcher) m).getMatcher()), NOT);
+        }
+        return bind(compileValue(m), VALUE_TYPE, VALUE_MATCHES);
+    }
+
+    /**
+     * compile the matchers within a {@link ValueMatcher}.  Matchers that have nothing
+     * to compile are returned as they are, so that a {@link FieldBasedTupleMatcher}
+     * still recognizes them.
+     */
+    private static ValueMatcher compileValue(ValueMatcher m) {
+        if (m instanceof AllValueMatcher || m instanceof AnyValueMatcher || m instanceof NotValueMatcher) {
+            return new CompiledValueMatcher(m, valueHandle(m));
+        } else if (m instanceof ListValueMatcher) {
+            List<ValueMatcher> elements = new ArrayList<ValueMatcher>();
+            for (ValueMatcher e : ((ListValueMatcher) m).getElementMatchers()) {
+                elements.add(compileValue(e));
+            }
+            return new ListValueMatcher(elements);
+        } else if (m instanceof FieldBasedTupleMatcher) {
+            return compileFields((FieldBasedTupleMatcher) m);
+        }
+        return m;
+    }
+
+    private static FieldBasedTupleMatcher compileFields(FieldBasedTupleMatcher m) {
+        LinkedHashMap<String, ValueMatcher> fields = new LinkedHashMap<String, ValueMatcher>();
+        for (Map.Entry<String, ValueMatcher> e : m.getFieldMatchers().entrySet()) {
+            fields.put(e.getKey(), compileValue(e.getValue()));
+        }
+        return FieldBasedTupleMatcher.of(fields);
+    }
+
+    /**
+     * get a handle calling the matcher directly on its own class if possible, and
+     * through the interface otherwise.
+     */
+    private static MethodHandle bind(Object m, MethodType type, MethodHandle viaInterface) {
+        try {
+            return MethodHandles.publicLookup().findVirtual(m.getClass(), "matches", type).bindTo(m);
+        } catch (ReflectiveOperationException e) {
+            return viaInterface.bindTo(m);
+        }
+    }
+
+    private static MethodHandle constant(boolean value, Class<?> arg) {
+        return MethodHandles.dropArguments(MethodHandles.constant(boolean.class, value), 0, arg);
+    }
+
+    private static MethodHandle all(List<MethodHandle> parts, Class<?> arg) {
+        MethodHandle res = parts.get(parts.size() - 1);
+        for (int i = parts.size() - 2; i >= 0; --i) {
+            res = MethodHandles.guardWithTest(parts.get(i), res, constant(false, arg));
+        }
+        return res;
+    }
+
+    private static MethodHandle any(List<MethodHandle> parts, Class<?> arg) {
+        MethodHandle res = parts.get(parts.size() - 1);
+        for (int i = parts.size() - 2; i >= 0; --i) {
+            res = MethodHandles.guardWithTest(parts.get(i), constant(true, arg), res);
+        }
+        return res;
+    }
+
+    private static boolean not(boolean b) {
+        return !b;
+    }
+
+    /**
+     * a composite {@link ValueMatcher} compiled to a handle, within a
+     * {@link FieldBasedTupleMatcher} or {@link ListValueMatcher}.
+     */
+    private static class CompiledValueMatcher implements ValueMatcher {
+        private final ValueMatcher original;
+        // (Object)boolean
+        private final MethodHandle handle;
+        private final Predicate<Object> tree;
+
+        CompiledValueMatcher(ValueMatcher original, MethodHandle handle) {
+            this.original = original;
+            this.handle = handle;
+            this.tree = ConstantHandleLoader.bind(handle);
+        }
+
+        @Override
+        public boolean matches(Object a) throws TupleException {
+            return tree.test(a);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CompiledValueMatcher && original.equals(((CompiledValueMatcher) o).original);
+        }
+
+        @Override
+        public int hashCode() {
+            return original.hashCode();
+        }
+
+        @Override
+        public JsonElement describe(Gson gson) {
+            return original.describe(gson);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.streambase.sbunit.ext.matchers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * {@link ConstantHandleLoader} defines a class of its own for a single
+ * <code>(Object)boolean</code> {@link MethodHandle}, holding the handle in a
+ * <code>static final</code> field.
+ * <p>
+ * The JIT treats a <code>static final</code> handle as a constant, so it can inline
+ * the whole of a compiled tree into the class's method.  It cannot do the same for
+ * a handle held in an instance field, which it must call through its lambda forms
+ * at every level of the tree.
+ * <p>
+ * The class is equivalent to:
+ * <pre>
+ * public final class ConstantHandle implements Predicate {
+ *     private static final MethodHandle H = (MethodHandle) ((Supplier) ConstantHandle.class.getClassLoader()).get();
+ *     public boolean test(Object a) {
+ *         return (boolean) H.invokeExact(a);
+ *     }
+ * }
+ * </pre>
+ * Each handle gets its own loader, so the class is unloaded along with the handle.
+ */
+class ConstantHandleLoader extends ClassLoader implements Supplier<Object> {
+    private static final String NAME = "com.streambase.sbunit.ext.matchers.ConstantHandle";
+    private static final byte[] BYTES = classBytes();
+
+    private final MethodHandle handle;
+
+    private ConstantHandleLoader(MethodHandle handle) {
+        super(ConstantHandleLoader.class.getClassLoader());
+        this.handle = handle;
+    }
+
+    /**
+     * get a predicate that invokes the handle, which must have type
+     * <code>(Object)boolean</code>.  The predicate throws whatever the handle throws.
+     */
+    @SuppressWarnings("unchecked")
+    static Predicate<Object> bind(MethodHandle handle) {
+        ConstantHandleLoader loader = new ConstantHandleLoader(handle);
+        try {
+            return (Predicate<Object>) loader.defineClass(NAME, BYTES, 0, BYTES.length)
+                    .getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * the handle, read by the class as it is initialized
+     */
+    @Override
+    public Object get() {
+        return handle;
+    }
+
+    private static byte[] classBytes() {
+        ConstantPool cp = new ConstantPool();
+        int thisClass = cp.classRef(NAME.replace('.', '/'));
+        int objectClass = cp.classRef("java/lang/Object");
+        int predicate = cp.classRef("java/util/function/Predicate");
+        int field = cp.ref(9, thisClass, "H", "Ljava/lang/invoke/MethodHandle;");
+        int objectInit = cp.ref(10, objectClass, "<init>", "()V");
+        int getClassLoader = cp.ref(10, cp.classRef("java/lang/Class"), "getClassLoader", "()Ljava/lang/ClassLoader;");
+        int supplier = cp.classRef("java/util/function/Supplier");
+        int get = cp.ref(11, supplier, "get", "()Ljava/lang/Object;");
+        int methodHandle = cp.classRef("java/lang/invoke/MethodHandle");
+        int invokeExact = cp.ref(10, methodHandle, "invokeExact", "(Ljava/lang/Object;)Z");
+        int code = cp.utf8("Code");
+
+        try {
+            // write the body first, since it adds to the constant pool before it
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeShort(0x0031); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(objectClass);
+            out.writeShort(1);
+            out.writeShort(predicate);
+
+            out.writeShort(1);
+            out.writeShort(0x001A); // private static final
+            out.writeShort(cp.utf8("H"));
+            out.writeShort(cp.utf8("Ljava/lang/invoke/MethodHandle;"));
+            out.writeShort(0);
+
+            out.writeShort(3);
+            method(out, cp, code, 0x0008, "<clinit>", "()V", 1, 0,
+                    0x12, thisClass,                           // ldc ConstantHandle.class
+                    0xB6, getClassLoader >> 8, getClassLoader, // invokevirtual
+                    0xC0, supplier >> 8, supplier,             // checkcast Supplier
+                    0xB9, get >> 8, get, 1, 0,                 // invokeinterface
+                    0xC0, methodHandle >> 8, methodHandle,     // checkcast MethodHandle
+                    0xB3, field >> 8, field,                   // putstatic H
+                    0xB1);                                     // return
+            method(out, cp, code, 0x0001, "<init>", "()V", 1, 1,
+                    0x2A,                                      // aload_0
+                    0xB7, objectInit >> 8, objectInit,         // invokespecial
+                    0xB1);                                     // return
+            method(out, cp, code, 0x0001, "test", "(Ljava/lang/Object;)Z", 2, 2,
+                    0xB2, field >> 8, field,                   // getstatic H
+                    0x2B,                                      // aload_1
+                    0xB6, invokeExact >> 8, invokeExact,       // invokevirtual
+                    0xAC);                                     // ireturn
+
+            out.writeShort(0);
+            out.close();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);
+            cp.write(out);
+            body.writeTo(out);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static void method(DataOutputStream out, ConstantPool cp, int code, int access,
+            String name, String descriptor, int maxStack, int maxLocals, int... instructions) throws IOException {
+        out.writeShort(access);
+        out.writeShort(cp.utf8(name));
+        out.writeShort(cp.utf8(descriptor));
+        out.writeShort(1);
+        out.writeShort(code);
+        out.writeInt(12 + instructions.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(instructions.length);
+        for (int b : instructions) {
+            out.writeByte(b);
+        }
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    /**
+     * the constant pool of the class, with each entry added once
+     */
+    private static class ConstantPool {
+        private final List<byte[]> entries = new ArrayList<byte[]>();
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        int utf8(String s) {
+            return add("utf8 " + s, 1, s);
+        }
+
+        int classRef(String internalName) {
+            return add("class " + internalName, 7, utf8(internalName));
+        }
+
+        /**
+         * add a field (9), method (10) or interface method (11) reference
+         */
+        int ref(int tag, int owner, String name, String descriptor) {
+            int nameAndType = add("nat " + name + descriptor, 12, utf8(name), utf8(descriptor));
+            return add("ref " + owner + " " + nameAndType, tag, owner, nameAndType);
+        }
+
+        private int add(String key, int tag, Object... contents) {
+            Integer index = indexes.get(key);
+            if (index == null) {
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    out.writeByte(tag);
+                    for (Object c : contents) {
+                        if (c instanceof String) {
+                            out.writeUTF((String) c);
+                        } else {
+                            out.writeShort((Integer) c);
+                        }
+                    }
+                    out.close();
+                    entries.add(bytes.toByteArray());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                index = entries.size();
+                indexes.put(key, index);
+            }
+            return index;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeShort(entries.size() + 1);
+            for (byte[] e : entries) {
+                out.write(e);
+            }
+        }
+    }
+}
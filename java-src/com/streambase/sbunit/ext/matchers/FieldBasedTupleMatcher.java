@@ -1,12 +1,14 @@
 package com.streambase.sbunit.ext.matchers;
 
 import java.text.MessageFormat;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.streambase.sb.Schema;
 import com.streambase.sb.Tuple;
 import com.streambase.sb.TupleException;
 import com.streambase.sbunit.ext.Matchers;
@@ -28,10 +30,13 @@ import com.streambase.sbunit.ext.ValueMatcher;
  * <p>
  * <b>Warning: {@link FieldBasedTupleMatcher} instances are always immutable</b>; 
  * a configuration method such as <code>ignoreNulls</code> has no effect on the 
- * instance it is invoked on.
+ * instance it is invoked on.  As each configuration method copies the matcher, 
+ * use a {@link Builder} to add many fields one at a time.
  */
 public class FieldBasedTupleMatcher implements TupleMatcher, ValueMatcher, IgnoreNullTransform, IgnoreFieldTransform {
     private final LinkedHashMap<String, ValueMatcher> matchers;
+    // compiled against the schema of the last tuple matched
+    private volatile FieldPlan plan = null;
     
     private FieldBasedTupleMatcher(LinkedHashMap<String, ValueMatcher> matchers) {
         this.matchers = matchers;
@@ -54,6 +59,20 @@ public class FieldBasedTupleMatcher implements TupleMatcher, ValueMatcher, Ignor
         return new FieldBasedTupleMatcher(new LinkedHashMap<String, ValueMatcher>(matchers));
     }
     
+    /**
+     * get a {@link Builder} which starts out with no matchers.
+     */
+    public static Builder builder() {
+        return new Builder(new LinkedHashMap<String, ValueMatcher>());
+    }
+    
+    /**
+     * get a {@link Builder} which starts out with the matchers of this.
+     */
+    public Builder toBuilder() {
+        return new Builder(new LinkedHashMap<String, ValueMatcher>(matchers));
+    }
+    
     /**
      * get an identical {@link FieldBasedTupleMatcher} to this, except
      * that it will ignore any null values that it is <b>currently</b> 
@@ -61,17 +80,7 @@ public class FieldBasedTupleMatcher implements TupleMatcher, ValueMatcher, Ignor
      */
     @Override
     public FieldBasedTupleMatcher ignoreNulls() {
-        LinkedHashMap<String, ValueMatcher> newMatchers = new LinkedHashMap<String, ValueMatcher>();
-        for (Map.Entry<String, ValueMatcher> e : matchers.entrySet()) {
-            ValueMatcher vm = e.getValue();
-            if (vm instanceof IgnoreNullTransform) {
-                vm = ((IgnoreNullTransform) vm).ignoreNulls();
-            }
-            if (vm != null) {
-                newMatchers.put(e.getKey(), vm);
-            }
-        }
-        return new FieldBasedTupleMatcher(newMatchers);
+        return toBuilder().ignoreNulls().build();
     }
     
     /**
@@ -81,34 +90,7 @@ public class FieldBasedTupleMatcher implements TupleMatcher, ValueMatcher, Ignor
      * TODO: it is possible to "ignore" fields that actually do not exist in the Schema
      */
     public FieldBasedTupleMatcher ignore(String field) {
-    	LinkedHashMap<String, ValueMatcher> newMatchers = new LinkedHashMap<String, ValueMatcher>(matchers);
-    	int length = field.length();
-    	int idx = length;
-    	while (idx > 0) {
-    		String head = field.substring(0, idx);
-    		String tail = field.substring(Math.min(idx+1, length), length);
-    		if (newMatchers.containsKey(head)) {
-    			ValueMatcher vm = newMatchers.remove(head);
-    			if (tail.isEmpty()) {
-    				vm = null;
-    			} else if (vm instanceof IgnoreFieldTransform) {
-    				vm = ((IgnoreFieldTransform) vm).ignoreField(tail);
-    			} else {
-    				throw new IllegalArgumentException(MessageFormat.format(
-    						"Unable to ignore sub-field {1} in larger field {0}",
-    						field, tail));
-    			}
-    			
-    			if (vm != null) {
-    				newMatchers.put(head, vm);
-    			}
-    			return new FieldBasedTupleMatcher(newMatchers);
-    		}
-    		idx = field.lastIndexOf('.', idx);
-    	}
-    	throw new IllegalArgumentException(MessageFormat.format(
-    			"Unable to find field {0} to ignore",
-    			field));
+        return toBuilder().ignore(field).build();
     }
     
     @Override
@@ -116,15 +98,31 @@ public class FieldBasedTupleMatcher implements TupleMatcher, ValueMatcher, Ignor
     	return ignore(field);
     }
     
+    /**
+     * get an identical {@link FieldBasedTupleMatcher} to this, except
+     * that it will ignore every field matching any of the <code>patterns</code>,
+     * within sub-tuples and lists as well.  In a pattern, <code>*</code> stands for 
+     * any one field, and <code>**</code> for any number of fields.  For example:
+     * <p>
+     * <pre>
+     * m.ignoreAll("**.timestamp", "legs[*].id")
+     * </pre>
+     * <p>
+     * Unlike {@link #ignore(String)}, a pattern that matches no field is not an 
+     * error.
+     * @throws IllegalArgumentException if a pattern is malformed
+     */
+    public FieldBasedTupleMatcher ignoreAll(String... patterns) {
+        return toBuilder().ignoreAll(patterns).build();
+    }
+    
     /**
      * get an identical {@link FieldBasedTupleMatcher} to this, except
      * that it will require the field identified by <code>field</code> to match
      * <code>m</code>
      */
     public FieldBasedTupleMatcher require(String field, ValueMatcher m) {
-        LinkedHashMap<String, ValueMatcher> newMatchers = new LinkedHashMap<String, ValueMatcher>(matchers);
-        newMatchers.put(field, m);
-        return new FieldBasedTupleMatcher(newMatchers);
+        return toBuilder().require(field, m).build();
     }
     
     /**
@@ -161,6 +159,14 @@ public class FieldBasedTupleMatcher implements TupleMatcher, ValueMatcher, Ignor
     }
     
     
+    /**
+     * get a read-only view of the field names and the {@link ValueMatcher}s
+     * they are required to match, in the order they are checked.
+     */
+    public Map<String, ValueMatcher> getFieldMatchers() {
+        return Collections.unmodifiableMap(matchers);
+    }
+    
     @Override
     public boolean matches(Object field) throws TupleException {
         if (field instanceof Tuple) {
@@ -170,19 +176,34 @@ public class FieldBasedTupleMatcher implements TupleMatcher, ValueMatcher, Ignor
     }
 
 
+    /**
+     * The matcher compiles itself against the {@link Schema} of the tuple, resolving
+     * each field once, and reuses that while tuples keep the same schema.
+     */
     @Override
     public boolean matches(Tuple t) throws TupleException {
-        for (Map.Entry<String, ValueMatcher> e : matchers.entrySet()) {
-            Object field = t.getField(e.getKey());
-            boolean matches = e.getValue().matches(field);
-            if (!matches) {
-                return false;
-            }
+        FieldPlan p = plan;
+        if (p == null || !p.isFor(t)) {
+            p = FieldPlan.compile(t.getSchema(), matchers);
+            plan = p;
         }
-        return true;
+        return p.matches(t);
     }
     
 
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        return matchers.equals(((FieldBasedTupleMatcher) o).matchers);
+    }
+    
+    @Override
+    public int hashCode() {
+        return matchers.hashCode();
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         JsonObject obj = new JsonObject();
@@ -191,4 +212,143 @@ public class FieldBasedTupleMatcher implements TupleMatcher, ValueMatcher, Ignor
         }
         return obj;
     }
+
+    /**
+     * {@link Builder} configures a {@link FieldBasedTupleMatcher} in place, so that
+     * building a matcher one field at a time doesn't copy every field for each one.
+     * Its configuration methods behave like those of {@link FieldBasedTupleMatcher}.
+     * For example:
+     * <p>
+     * <pre>
+     * FieldBasedTupleMatcher.Builder b = FieldBasedTupleMatcher.builder();
+     * for (int i = 0; i &lt; names.length; ++i) {
+     *     b.require(names[i], values[i]);
+     * }
+     * FieldBasedTupleMatcher m = b.build();
+     * </pre>
+     * <p>
+     * The matchers a {@link Builder} builds are immutable as always; changing the
+     * {@link Builder} after {@link #build()} has no effect on them.  
+     * {@link Builder}s are not thread safe.
+     */
+    public static class Builder {
+        private LinkedHashMap<String, ValueMatcher> matchers;
+        // whether the last matcher built holds the map, so it must be copied before a change
+        private boolean shared = false;
+        
+        private Builder(LinkedHashMap<String, ValueMatcher> matchers) {
+            this.matchers = matchers;
+        }
+        
+        /**
+         * ignore any null values that the builder is <b>currently</b> configured
+         * to enforce.
+         */
+        public Builder ignoreNulls() {
+            LinkedHashMap<String, ValueMatcher> newMatchers = new LinkedHashMap<String, ValueMatcher>();
+            for (Map.Entry<String, ValueMatcher> e : matchers.entrySet()) {
+                ValueMatcher vm = e.getValue();
+                if (vm instanceof IgnoreNullTransform) {
+                    vm = ((IgnoreNullTransform) vm).ignoreNulls();
+                }
+                if (vm != null) {
+                    newMatchers.put(e.getKey(), vm);
+                }
+            }
+            matchers = newMatchers;
+            shared = false;
+            return this;
+        }
+        
+        /**
+         * ignore the field identified by <code>field</code>
+         */
+        public Builder ignore(String field) {
+        	int length = field.length();
+        	int idx = length;
+        	while (idx > 0) {
+        		String head = field.substring(0, idx);
+        		String tail = field.substring(Math.min(idx+1, length), length);
+        		if (matchers.containsKey(head)) {
+        			ValueMatcher vm = matchers.get(head);
+        			if (tail.isEmpty()) {
+        				vm = null;
+        			} else if (vm instanceof IgnoreFieldTransform) {
+        				vm = ((IgnoreFieldTransform) vm).ignoreField(tail);
+        			} else {
+        				throw new IllegalArgumentException(MessageFormat.format(
+        						"Unable to ignore sub-field {1} in larger field {0}",
+        						field, tail));
+        			}
+        			
+        			unshare();
+        			matchers.remove(head);
+        			if (vm != null) {
+        				matchers.put(head, vm);
+        			}
+        			return this;
+        		}
+        		idx = field.lastIndexOf('.', idx);
+        	}
+        	throw new IllegalArgumentException(MessageFormat.format(
+        			"Unable to find field {0} to ignore",
+        			field));
+        }
+        
+        /**
+         * ignore every field matching any of the <code>patterns</code>
+         * @see FieldBasedTupleMatcher#ignoreAll(String...)
+         */
+        public Builder ignoreAll(String... patterns) {
+            matchers = FieldPatternTrie.of(patterns).ignore(matchers);
+            shared = false;
+            return this;
+        }
+        
+        /**
+         * require the field identified by <code>field</code> to match <code>m</code>
+         */
+        public Builder require(String field, ValueMatcher m) {
+            unshare();
+            matchers.put(field, m);
+            return this;
+        }
+        
+        /**
+         * require the field identified by <code>field</code> to match the literal
+         * <code>val</code>.
+         */
+        public Builder require(String field, Object val) {
+            return require(field, Matchers.literal(val));
+        }
+        
+        /**
+         * require the field identified by <code>field</code> to be null.
+         */
+        public Builder requireNull(String field) {
+            return require(field, Matchers.isNull());
+        }
+        
+        /**
+         * require the field identified by <code>field</code> to be non-null.
+         */
+        public Builder requireNonNull(String field) {
+            return require(field, Matchers.isNonNull());
+        }
+        
+        /**
+         * get a {@link FieldBasedTupleMatcher} with the current configuration.
+         */
+        public FieldBasedTupleMatcher build() {
+            shared = true;
+            return new FieldBasedTupleMatcher(matchers);
+        }
+        
+        private void unshare() {
+            if (shared) {
+                matchers = new LinkedHashMap<String, ValueMatcher>(matchers);
+                shared = false;
+            }
+        }
+    }
 }
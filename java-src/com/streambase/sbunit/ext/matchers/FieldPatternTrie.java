@@ -0,0 +1,171 @@
+package com.streambase.sbunit.ext.matchers;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.streambase.sbunit.ext.ValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.ListValueMatcher;
+
+/**
+ * {@link FieldPatternTrie} holds patterns of fields to ignore, sharing the fields
+ * the patterns have in common, so that any number of patterns can be applied to a
+ * matcher in a single pass over its fields.
+ * <p>
+ * A pattern is a dotted path of fields.  Within it, <code>*</code> stands for any
+ * one field, and <code>**</code> for any number of fields, including none.  A field
+ * holding a list may be written as <code>legs[*]</code>; since a field within a list
+ * is always ignored in every element, that is the same as <code>legs</code>.
+ * <p>
+ * Patterns are applied to the field matchers of {@link FieldBasedTupleMatcher}s,
+ * to the matchers of sub-tuples and to the elements of {@link ListValueMatcher}s.
+ * Patterns which match no field are not an error.
+ */
+class FieldPatternTrie {
+    private static final String LIST_ELEMENTS = "[*]";
+
+    private final Node root = new Node();
+
+    /**
+     * get a trie of the patterns
+     * @throws IllegalArgumentException if a pattern is malformed
+     */
+    static FieldPatternTrie of(String... patterns) {
+        FieldPatternTrie res = new FieldPatternTrie();
+        for (String p : patterns) {
+            res.add(p);
+        }
+        return res;
+    }
+
+    private void add(String pattern) {
+        Node n = root;
+        for (String field : pattern.split("\\.", -1)) {
+            if (field.endsWith(LIST_ELEMENTS)) {
+                field = field.substring(0, field.length() - LIST_ELEMENTS.length());
+            }
+            if (field.isEmpty() || field.indexOf('[') >= 0 || field.indexOf(']') >= 0) {
+                throw new IllegalArgumentException(MessageFormat.format(
+                        "Unable to parse field pattern {0}",
+                        pattern));
+            }
+            if (field.equals("**")) {
+                if (n.deep == null) {
+                    n.deep = new Node();
+                    n.deep.loops = true;
+                }
+                n = n.deep;
+            } else if (field.equals("*")) {
+                if (n.star == null) {
+                    n.star = new Node();
+                }
+                n = n.star;
+            } else {
+                Node child = n.children.get(field);
+                if (child == null) {
+                    child = new Node();
+                    n.children.put(field, child);
+                }
+                n = child;
+            }
+        }
+        n.ignored = true;
+    }
+
+    /**
+     * get the field matchers without the fields the patterns match
+     */
+    LinkedHashMap<String, ValueMatcher> ignore(Map<String, ValueMatcher> matchers) {
+        List<Node> start = new ArrayList<Node>();
+        reach(root, start);
+        return ignore(matchers, start);
+    }
+
+    private static LinkedHashMap<String, ValueMatcher> ignore(Map<String, ValueMatcher> matchers, List<Node> states) {
+        LinkedHashMap<String, ValueMatcher> res = new LinkedHashMap<String, ValueMatcher>();
+        for (Map.Entry<String, ValueMatcher> e : matchers.entrySet()) {
+            // a field path may have several parts, if it is within sub-tuples, and
+            // is ignored if any of them is
+            List<Node> s = states;
+            boolean ignored = false;
+            for (String field : e.getKey().split("\\.")) {
+                s = step(s, field);
+                ignored = isIgnored(s);
+                if (ignored || s.isEmpty()) {
+                    break;
+                }
+            }
+            if (!ignored) {
+                res.put(e.getKey(), s.isEmpty() ? e.getValue() : ignore(e.getValue(), s));
+            }
+        }
+        return res;
+    }
+
+    private static ValueMatcher ignore(ValueMatcher vm, List<Node> states) {
+        if (vm instanceof FieldBasedTupleMatcher) {
+            return FieldBasedTupleMatcher.of(ignore(((FieldBasedTupleMatcher) vm).getFieldMatchers(), states));
+        } else if (vm instanceof ListValueMatcher) {
+            List<ValueMatcher> elements = new ArrayList<ValueMatcher>();
+            for (ValueMatcher element : ((ListValueMatcher) vm).getElementMatchers()) {
+                elements.add(ignore(element, states));
+            }
+            return new ListValueMatcher(elements);
+        }
+        return vm;
+    }
+
+    /**
+     * get the nodes reached from any of the nodes by the field
+     */
+    private static List<Node> step(List<Node> states, String field) {
+        List<Node> res = new ArrayList<Node>();
+        for (Node n : states) {
+            Node child = n.children.get(field);
+            if (child != null) {
+                reach(child, res);
+            }
+            if (n.star != null) {
+                reach(n.star, res);
+            }
+            if (n.loops) {
+                reach(n, res);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * add the node to the states, along with the nodes it reaches without a field
+     */
+    private static void reach(Node n, List<Node> states) {
+        while (n != null && !states.contains(n)) {
+            states.add(n);
+            n = n.deep;
+        }
+    }
+
+    private static boolean isIgnored(List<Node> states) {
+        for (Node n : states) {
+            if (n.ignored) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<String, Node>();
+        // the node after a "*"
+        private Node star = null;
+        // the node after a "**"
+        private Node deep = null;
+        // whether this node follows a "**", so stays put for any further field
+        private boolean loops = false;
+        // whether a pattern ends here
+        private boolean ignored = false;
+    }
+}
@@ -0,0 +1,291 @@
+package com.streambase.sbunit.ext.matchers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+import com.streambase.sbunit.ext.ValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.EqualsValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.NonNullValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.NullValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.PrimitiveValueMatcher;
+
+/**
+ * {@link FieldPlan} is a {@link FieldBasedTupleMatcher} compiled against one
+ * {@link Schema}: every field path is resolved to {@link Schema.Field}s once, and
+ * paths into the same sub-tuple are grouped so the sub-tuple is fetched once for
+ * all of them.
+ * <p>
+ * Fields matched by a {@link PrimitiveValueMatcher} of the field's own type are read
+ * with the typed getter, so their values are never boxed.
+ * <p>
+ * The checks start in the order the paths were given, with groups where their first
+ * path was.  The plan samples how often each check rejects a tuple in the
+ * {@link FieldStatistics} shared by every matcher of the schema, and whenever the
+ * statistics say so it moves the checks that reject the most tuples for their cost
+ * to the front.  Evaluations that aren't sampled write nothing shared.  The result
+ * of a match never depends on the order.  When a sub-tuple is null, the paths within
+ * it are looked up by name on the whole tuple instead, exactly as an uncompiled
+ * matcher would.  If some path can't be resolved against the schema, the plan checks
+ * every path by name, so the failure surfaces just as it would have without a plan.
+ */
+class FieldPlan {
+    // the relative cost of each kind of check
+    private static final int PRIMITIVE_COST = 1;
+    private static final int EQUALS_COST = 2;
+    private static final int GROUP_COST = 4;
+    private static final int OTHER_COST = 8;
+
+    private final Schema schema;
+    private final Map<String, ValueMatcher> matchers;
+    // null if the paths could not be resolved
+    private final Node root;
+
+    private FieldPlan(Schema schema, Map<String, ValueMatcher> matchers, Node root) {
+        this.schema = schema;
+        this.matchers = matchers;
+        this.root = root;
+    }
+
+    /**
+     * compile the matchers against a schema.
+     */
+    static FieldPlan compile(Schema schema, Map<String, ValueMatcher> matchers) {
+        List<String> paths = new ArrayList<String>(matchers.keySet());
+        List<ValueMatcher> vms = new ArrayList<ValueMatcher>(matchers.values());
+        Node root;
+        try {
+            root = Node.build(schema, "", paths, vms);
+        } catch (TupleException e) {
+            root = null;
+        }
+        return new FieldPlan(schema, matchers, root);
+    }
+
+    /**
+     * get whether this plan was compiled against the schema of t
+     */
+    boolean isFor(Tuple t) {
+        return t.getSchema() == schema;
+    }
+
+    boolean matches(Tuple t) throws TupleException {
+        if (root == null) {
+            for (Map.Entry<String, ValueMatcher> e : matchers.entrySet()) {
+                if (!e.getValue().matches(t.getField(e.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return root.matches(t, t);
+    }
+
+    /**
+     * the fields checked within one tuple or sub-tuple.
+     */
+    private static class Node {
+        private final Schema.Field[] fields;
+        // the matcher for each field, or null where the field is a group of paths
+        private final ValueMatcher[] matchers;
+        // the matcher for each field that can be read without boxing, or null
+        private final PrimitiveValueMatcher[] primitives;
+        private final Node[] groups;
+        // the full paths of the fields, for when a sub-tuple is null
+        private final String[] paths;
+        // the position of each field in the schema, for the statistics
+        private final int[] indexes;
+        private final int[] costs;
+        private final FieldStatistics stats;
+        // the order to check the fields in, replaced as the statistics change
+        private volatile int[] order;
+        private volatile int orderVersion;
+
+        private Node(Schema schema, Schema.Field[] fields, ValueMatcher[] matchers, Node[] groups, String[] paths) {
+            this.fields = fields;
+            this.matchers = matchers;
+            this.groups = groups;
+            this.paths = paths;
+            this.primitives = new PrimitiveValueMatcher[fields.length];
+            this.indexes = new int[fields.length];
+            this.costs = new int[fields.length];
+            for (int i = 0; i < fields.length; ++i) {
+                if (matchers[i] instanceof PrimitiveValueMatcher
+                        && ((PrimitiveValueMatcher) matchers[i]).getDataType() == fields[i].getDataType()) {
+                    primitives[i] = (PrimitiveValueMatcher) matchers[i];
+                }
+                indexes[i] = schema.getFieldIndex(fields[i].getName());
+                if (primitives[i] != null) {
+                    costs[i] = PRIMITIVE_COST;
+                } else if (groups[i] != null) {
+                    costs[i] = GROUP_COST;
+                } else if (matchers[i] instanceof EqualsValueMatcher 
+                        || matchers[i] instanceof NullValueMatcher
+                        || matchers[i] instanceof NonNullValueMatcher) {
+                    costs[i] = EQUALS_COST;
+                } else {
+                    costs[i] = OTHER_COST;
+                }
+            }
+            this.stats = FieldStatistics.of(schema);
+            this.orderVersion = stats.getVersion();
+            this.order = chooseOrder();
+        }
+
+        /**
+         * @return the node, or null if a path goes through a field which isn't a tuple
+         */
+        static Node build(Schema schema, String prefix, List<String> paths, List<ValueMatcher> vms)
+                throws TupleException {
+            // group the paths by their first field, keeping the order of first appearance
+            Map<String, List<Integer>> byHead = new LinkedHashMap<String, List<Integer>>();
+            for (int i = 0; i < paths.size(); ++i) {
+                String p = paths.get(i);
+                int dot = p.indexOf('.');
+                String head = dot < 0 ? p : p.substring(0, dot);
+                if (dot >= 0) {
+                    // a group of paths is keyed apart from a matcher on the whole sub-tuple
+                    head = "." + head;
+                }
+                List<Integer> members = byHead.get(head);
+                if (members == null) {
+                    members = new ArrayList<Integer>();
+                    byHead.put(head, members);
+                }
+                members.add(i);
+            }
+
+            int n = byHead.size();
+            Schema.Field[] fields = new Schema.Field[n];
+            ValueMatcher[] matchers = new ValueMatcher[n];
+            Node[] groups = new Node[n];
+            String[] fullPaths = new String[n];
+            int j = 0;
+            for (Map.Entry<String, List<Integer>> e : byHead.entrySet()) {
+                String head = e.getKey();
+                if (head.startsWith(".")) {
+                    head = head.substring(1);
+                    Schema.Field f = schema.getField(head);
+                    if (f.getDataType() != DataType.TUPLE) {
+                        return null;
+                    }
+                    List<String> subPaths = new ArrayList<String>();
+                    List<ValueMatcher> subVms = new ArrayList<ValueMatcher>();
+                    for (int i : e.getValue()) {
+                        subPaths.add(paths.get(i).substring(head.length() + 1));
+                        subVms.add(vms.get(i));
+                    }
+                    Node sub = build(f.getCompleteDataType().getSchema(), prefix + head + ".", subPaths, subVms);
+                    if (sub == null) {
+                        return null;
+                    }
+                    fields[j] = f;
+                    groups[j] = sub;
+                } else {
+                    fields[j] = schema.getField(head);
+                    matchers[j] = vms.get(e.getValue().get(0));
+                }
+                fullPaths[j] = prefix + head;
+                ++j;
+            }
+            return new Node(schema, fields, matchers, groups, fullPaths);
+        }
+
+        boolean matches(Tuple t, Tuple whole) throws TupleException {
+            if (FieldStatistics.sample()) {
+                return matchesSampled(t, whole);
+            }
+            int[] ord = order;
+            for (int k = 0; k < ord.length; ++k) {
+                if (!matches(ord[k], t, whole)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * match while counting the checks, and reorder them if the statistics say so
+         */
+        private boolean matchesSampled(Tuple t, Tuple whole) throws TupleException {
+            stats.evaluated();
+            int version = stats.getVersion();
+            if (version != orderVersion) {
+                // racing threads may both reorder, which is harmless
+                orderVersion = version;
+                order = chooseOrder();
+            }
+            
+            int[] ord = order;
+            for (int k = 0; k < ord.length; ++k) {
+                int i = ord[k];
+                stats.checked(indexes[i]);
+                if (!matches(i, t, whole)) {
+                    stats.rejected(indexes[i]);
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        private boolean matches(int i, Tuple t, Tuple whole) throws TupleException {
+            if (primitives[i] != null) {
+                return primitives[i].matchesField(t, fields[i]);
+            }
+            Object val = t.getField(fields[i]);
+            if (groups[i] == null) {
+                return matchers[i].matches(val);
+            } else if (val instanceof Tuple) {
+                return groups[i].matches((Tuple) val, whole);
+            }
+            return groups[i].matchesByName(whole);
+        }
+        
+        /**
+         * order the checks by the fraction of tuples they reject for their cost, 
+         * keeping the original order between equals
+         */
+        private int[] chooseOrder() {
+            final double[] scores = new double[fields.length];
+            Integer[] positions = new Integer[fields.length];
+            for (int i = 0; i < fields.length; ++i) {
+                scores[i] = stats.getRejectionRate(indexes[i]) / costs[i];
+                positions[i] = i;
+            }
+            Arrays.sort(positions, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(scores[b], scores[a]);
+                }
+            });
+            int[] res = new int[fields.length];
+            for (int i = 0; i < res.length; ++i) {
+                res[i] = positions[i];
+            }
+            return res;
+        }
+
+        /**
+         * check every path in this node by name against the whole tuple
+         */
+        private boolean matchesByName(Tuple whole) throws TupleException {
+            for (int i = 0; i < fields.length; ++i) {
+                if (groups[i] == null) {
+                    if (!matchers[i].matches(whole.getField(paths[i]))) {
+                        return false;
+                    }
+                } else if (!groups[i].matchesByName(whole)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
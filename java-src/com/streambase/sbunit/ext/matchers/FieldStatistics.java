@@ -0,0 +1,106 @@
+package com.streambase.sbunit.ext.matchers;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.streambase.sb.Schema;
+
+/**
+ * {@link FieldStatistics} counts how often each field of a {@link Schema} is checked
+ * by a compiled {@link FieldBasedTupleMatcher}, and how often that check rejects the
+ * tuple.  One set of statistics is shared by every matcher compiled against equal
+ * schemas, so matchers built later start out with what earlier ones learned.
+ * <p>
+ * Only one in {@link #SAMPLE_RATE} evaluations, chosen at random by each thread, is
+ * counted, so that matchers evaluated on many threads at once rarely write to the
+ * shared counts.  The rates are ratios, so sampling doesn't bias them.
+ * <p>
+ * The statistics have a version that is bumped after {@link #FIRST_INTERVAL} 
+ * sampled tuples, then after twice as many more, and so on up to 
+ * {@link #MAX_INTERVAL}, telling matchers when to reconsider the order of their
+ * checks.  Growing the interval bounds how often each matcher does so, however
+ * many matchers share the statistics.
+ * <p>
+ * The counts are updated without synchronization.  Racing threads may lose a few
+ * updates, which only makes the rates slightly less precise; they are only used
+ * to choose the order of checks, never to decide a match.
+ */
+class FieldStatistics {
+    static final int SAMPLE_RATE = 64;
+    static final long FIRST_INTERVAL = 16;
+    static final long MAX_INTERVAL = 1 << 14;
+
+    private static final Map<Schema, FieldStatistics> BY_SCHEMA =
+            Collections.synchronizedMap(new WeakHashMap<Schema, FieldStatistics>());
+
+    private final long[] checks;
+    private final long[] rejections;
+    private long evaluated = 0;
+    private long interval = FIRST_INTERVAL;
+    private long nextVersionAt = FIRST_INTERVAL;
+    private volatile int version = 0;
+
+    private FieldStatistics(int numFields) {
+        this.checks = new long[numFields];
+        this.rejections = new long[numFields];
+    }
+
+    /**
+     * get the statistics shared by matchers of the schema
+     */
+    static FieldStatistics of(Schema schema) {
+        synchronized (BY_SCHEMA) {
+            FieldStatistics res = BY_SCHEMA.get(schema);
+            if (res == null) {
+                res = new FieldStatistics(schema.getFieldCount());
+                BY_SCHEMA.put(schema, res);
+            }
+            return res;
+        }
+    }
+
+    /**
+     * get whether the calling thread should count its current evaluation
+     */
+    static boolean sample() {
+        return ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0;
+    }
+
+    /**
+     * count a sampled tuple checked by a matcher of the schema
+     */
+    void evaluated() {
+        if (++evaluated >= nextVersionAt) {
+            interval = Math.min(interval * 2, MAX_INTERVAL);
+            nextVersionAt = evaluated + interval;
+            ++version;
+        }
+    }
+
+    /**
+     * get the version of the statistics, which changes when the order of checks
+     * should be reconsidered
+     */
+    int getVersion() {
+        return version;
+    }
+
+    void checked(int field) {
+        ++checks[field];
+    }
+
+    void rejected(int field) {
+        ++rejections[field];
+    }
+
+    /**
+     * get the fraction of checks of the field that rejected the tuple, or 0 if it
+     * has never been checked
+     */
+    double getRejectionRate(int field) {
+        long c = checks[field];
+        return c == 0 ? 0 : Math.min(1.0, (double) rejections[field] / c);
+    }
+}
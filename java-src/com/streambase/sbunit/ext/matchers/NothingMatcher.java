@@ -23,6 +23,16 @@ public class NothingMatcher implements TupleMatcher, ValueMatcher {
         return false;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return o != null && o.getClass() == getClass();
+    }
+    
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         return gson.toJsonTree("<nothing>");
@@ -1,5 +1,9 @@
 package com.streambase.sbunit.ext.matchers.tuple;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -20,6 +24,16 @@ public class AllTupleMatcher implements TupleMatcher {
         this.matchers = matchers;
     }
 
+    /**
+     * get the component {@link TupleMatcher}s, in the order they are checked.
+     */
+    public List<TupleMatcher> getMatchers() {
+        List<TupleMatcher> res = new ArrayList<TupleMatcher>();
+        res.add(m);
+        res.addAll(Arrays.asList(matchers));
+        return res;
+    }
+
     @Override
     public boolean matches(Tuple a) throws TupleException {
         boolean res = m.matches(a);
@@ -29,6 +43,20 @@ public class AllTupleMatcher implements TupleMatcher {
         return res;
     }
     
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        AllTupleMatcher other = (AllTupleMatcher) o;
+        return m.equals(other.m) && Arrays.equals(matchers, other.matchers);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * m.hashCode() + Arrays.hashCode(matchers);
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         JsonArray parts = new JsonArray();
@@ -17,11 +17,31 @@ public class NotTupleMatcher implements TupleMatcher {
         this.m = m;
     }
 
+    /**
+     * get the component {@link TupleMatcher}.
+     */
+    public TupleMatcher getMatcher() {
+        return m;
+    }
+
     @Override
     public boolean matches(Tuple a) throws TupleException {
         return !m.matches(a);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        return m.equals(((NotTupleMatcher) o).m);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * m.hashCode() + 1;
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         String res = "not " + gson.toJson(m.describe(gson));
@@ -1,5 +1,9 @@
 package com.streambase.sbunit.ext.matchers.value;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -19,6 +23,16 @@ public class AnyValueMatcher implements ValueMatcher {
         this.m = m;
     }
 
+    /**
+     * get the component {@link ValueMatcher}s, in the order they are checked.
+     */
+    public List<ValueMatcher> getMatchers() {
+        List<ValueMatcher> res = new ArrayList<ValueMatcher>();
+        res.add(m);
+        res.addAll(Arrays.asList(matchers));
+        return res;
+    }
+
     @Override
     public boolean matches(Object a) throws TupleException {
         boolean res = m.matches(a);
@@ -28,6 +42,20 @@ public class AnyValueMatcher implements ValueMatcher {
         return res;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        AnyValueMatcher other = (AnyValueMatcher) o;
+        return m.equals(other.m) && Arrays.equals(matchers, other.matchers);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * m.hashCode() + Arrays.hashCode(matchers);
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         JsonArray parts = new JsonArray();
@@ -0,0 +1,34 @@
+package com.streambase.sbunit.ext.matchers.value;
+
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+import com.streambase.sbunit.ext.ValueMatcher;
+
+/**
+ * A {@link ValueMatcher} which matches a single boolean value without boxing it.
+ */
+public class BooleanValueMatcher extends EqualsValueMatcher implements PrimitiveValueMatcher {
+    private final boolean expected;
+    
+    public BooleanValueMatcher(boolean expected) {
+        super(expected);
+        this.expected = expected;
+    }
+    
+    @Override
+    public boolean matches(Object actual) {
+        return actual instanceof Boolean && ((Boolean) actual).booleanValue() == expected;
+    }
+    
+    @Override
+    public DataType getDataType() {
+        return DataType.BOOL;
+    }
+    
+    @Override
+    public boolean matchesField(Tuple t, Schema.Field f) throws TupleException {
+        return !t.isNull(f) && t.getBoolean(f) == expected;
+    }
+}
@@ -2,6 +2,10 @@ package com.streambase.sbunit.ext.matchers.value;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
 import com.streambase.sbunit.ext.ValueMatcher;
 
 /**
@@ -13,7 +17,7 @@ import com.streambase.sbunit.ext.ValueMatcher;
  * <p>
  * Use {@link RatioTestDoubleValueMatcher}, for a more general double comparison technique. 
  */
-public class DifferenceTestDoubleValueMatcher implements ValueMatcher {
+public class DifferenceTestDoubleValueMatcher implements PrimitiveValueMatcher {
     private final double expected;
     private final double tolerance;
     
@@ -25,11 +29,36 @@ public class DifferenceTestDoubleValueMatcher implements ValueMatcher {
     @Override
     public boolean matches(Object actual) {
         if (actual instanceof Double) {
-            return Math.abs(expected - (Double)actual) < tolerance;
+            return Math.abs(expected - ((Double) actual).doubleValue()) < tolerance;
         }
         return false;
     }
     
+    @Override
+    public DataType getDataType() {
+        return DataType.DOUBLE;
+    }
+    
+    @Override
+    public boolean matchesField(Tuple t, Schema.Field f) throws TupleException {
+        return !t.isNull(f) && Math.abs(expected - t.getDouble(f)) < tolerance;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        DifferenceTestDoubleValueMatcher other = (DifferenceTestDoubleValueMatcher) o;
+        return Double.compare(expected, other.expected) == 0 
+                && Double.compare(tolerance, other.tolerance) == 0;
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * Double.valueOf(expected).hashCode() + Double.valueOf(tolerance).hashCode();
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         return gson.toJsonTree(expected);
@@ -20,6 +20,26 @@ public class EqualsValueMatcher implements ValueMatcher {
         return expected.equals(actual);
     }
     
+    /**
+     * get the value this matcher compares against
+     */
+    public Object getExpected() {
+        return expected;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        return expected.equals(((EqualsValueMatcher) o).expected);
+    }
+    
+    @Override
+    public int hashCode() {
+        return expected.hashCode();
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         return gson.toJsonTree(expected);
@@ -0,0 +1,34 @@
+package com.streambase.sbunit.ext.matchers.value;
+
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+import com.streambase.sbunit.ext.ValueMatcher;
+
+/**
+ * A {@link ValueMatcher} which matches a single int value without boxing it.
+ */
+public class IntValueMatcher extends EqualsValueMatcher implements PrimitiveValueMatcher {
+    private final int expected;
+    
+    public IntValueMatcher(int expected) {
+        super(expected);
+        this.expected = expected;
+    }
+    
+    @Override
+    public boolean matches(Object actual) {
+        return actual instanceof Integer && ((Integer) actual).intValue() == expected;
+    }
+    
+    @Override
+    public DataType getDataType() {
+        return DataType.INT;
+    }
+    
+    @Override
+    public boolean matchesField(Tuple t, Schema.Field f) throws TupleException {
+        return !t.isNull(f) && t.getInt(f) == expected;
+    }
+}
@@ -2,6 +2,7 @@ package com.streambase.sbunit.ext.matchers.value;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import com.google.gson.Gson;
@@ -24,6 +25,13 @@ public class ListValueMatcher implements ValueMatcher, IgnoreNullTransform, Igno
         this.expected = expected;
     }
     
+    /**
+     * get the {@link ValueMatcher}s for each element of the list.
+     */
+    public List<? extends ValueMatcher> getElementMatchers() {
+        return Collections.unmodifiableList(expected);
+    }
+    
     @Override
     public boolean matches(Object actual) throws TupleException {
         if (actual instanceof List) {
@@ -73,6 +81,19 @@ public class ListValueMatcher implements ValueMatcher, IgnoreNullTransform, Igno
         return new ListValueMatcher(res);
     }
     
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        return expected.equals(((ListValueMatcher) o).expected);
+    }
+    
+    @Override
+    public int hashCode() {
+        return expected.hashCode();
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         JsonArray parts = new JsonArray();
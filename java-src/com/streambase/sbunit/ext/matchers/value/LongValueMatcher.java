@@ -0,0 +1,34 @@
+package com.streambase.sbunit.ext.matchers.value;
+
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+import com.streambase.sbunit.ext.ValueMatcher;
+
+/**
+ * A {@link ValueMatcher} which matches a single long value without boxing it.
+ */
+public class LongValueMatcher extends EqualsValueMatcher implements PrimitiveValueMatcher {
+    private final long expected;
+    
+    public LongValueMatcher(long expected) {
+        super(expected);
+        this.expected = expected;
+    }
+    
+    @Override
+    public boolean matches(Object actual) {
+        return actual instanceof Long && ((Long) actual).longValue() == expected;
+    }
+    
+    @Override
+    public DataType getDataType() {
+        return DataType.LONG;
+    }
+    
+    @Override
+    public boolean matchesField(Tuple t, Schema.Field f) throws TupleException {
+        return !t.isNull(f) && t.getLong(f) == expected;
+    }
+}
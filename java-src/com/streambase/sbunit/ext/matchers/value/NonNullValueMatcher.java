@@ -15,6 +15,16 @@ public class NonNullValueMatcher implements ValueMatcher {
         return actual != null;
     }
     
+    @Override
+    public boolean equals(Object o) {
+        return o != null && o.getClass() == getClass();
+    }
+    
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         return gson.toJsonTree("non-null");
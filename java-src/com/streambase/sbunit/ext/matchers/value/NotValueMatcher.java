@@ -16,11 +16,31 @@ public class NotValueMatcher implements ValueMatcher {
         this.m = m;
     }
 
+    /**
+     * get the component {@link ValueMatcher}.
+     */
+    public ValueMatcher getMatcher() {
+        return m;
+    }
+
     @Override
     public boolean matches(Object a) throws TupleException {
         return !m.matches(a);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        return m.equals(((NotValueMatcher) o).m);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * m.hashCode() + 1;
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         String res = "not " + gson.toJson(m.describe(gson));
@@ -21,6 +21,16 @@ public class NullValueMatcher implements ValueMatcher, IgnoreNullTransform {
         return null;
     }
     
+    @Override
+    public boolean equals(Object o) {
+        return o != null && o.getClass() == getClass();
+    }
+    
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         return gson.toJsonTree(null);
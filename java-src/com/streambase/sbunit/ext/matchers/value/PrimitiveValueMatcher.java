@@ -0,0 +1,28 @@
+package com.streambase.sbunit.ext.matchers.value;
+
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+import com.streambase.sbunit.ext.ValueMatcher;
+import com.streambase.sbunit.ext.matchers.FieldBasedTupleMatcher;
+
+/**
+ * A {@link ValueMatcher} for a single primitive {@link DataType} that can read the
+ * value straight from a tuple with the typed getter, so checking it doesn't box
+ * the value.  {@link FieldBasedTupleMatcher} uses this whenever the field has the
+ * matcher's type.
+ */
+public interface PrimitiveValueMatcher extends ValueMatcher {
+    /**
+     * get the type of field this matcher can read directly
+     */
+    public DataType getDataType();
+    
+    /**
+     * determine whether or not field <code>f</code> of <code>t</code> matches, with
+     * the same result as <code>matches(t.getField(f))</code>
+     * @param f  a field of type {@link #getDataType()}
+     */
+    public boolean matchesField(Tuple t, Schema.Field f) throws TupleException;
+}
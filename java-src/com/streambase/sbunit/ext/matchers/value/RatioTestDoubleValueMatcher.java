@@ -2,6 +2,10 @@ package com.streambase.sbunit.ext.matchers.value;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
 import com.streambase.sb.util.Util;
 import com.streambase.sbunit.ext.ValueMatcher;
 
@@ -13,7 +17,7 @@ import com.streambase.sbunit.ext.ValueMatcher;
  * regardless of the magnitude of expected or actual, allowing a default
  * tolerance to be more generally applicable. 
  */
-public class RatioTestDoubleValueMatcher implements ValueMatcher {
+public class RatioTestDoubleValueMatcher implements PrimitiveValueMatcher {
     private final double expected;
     private final double tolerance;
     
@@ -29,11 +33,36 @@ public class RatioTestDoubleValueMatcher implements ValueMatcher {
     @Override
     public boolean matches(Object actual) {
         if (actual instanceof Double) {
-            return Util.compareDoubles(tolerance, expected, (Double)actual);
+            return Util.compareDoubles(tolerance, expected, ((Double) actual).doubleValue());
         }
         return false;
     }
     
+    @Override
+    public DataType getDataType() {
+        return DataType.DOUBLE;
+    }
+    
+    @Override
+    public boolean matchesField(Tuple t, Schema.Field f) throws TupleException {
+        return !t.isNull(f) && Util.compareDoubles(tolerance, expected, t.getDouble(f));
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        RatioTestDoubleValueMatcher other = (RatioTestDoubleValueMatcher) o;
+        return Double.compare(expected, other.expected) == 0 
+                && Double.compare(tolerance, other.tolerance) == 0;
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * Double.valueOf(expected).hashCode() + Double.valueOf(tolerance).hashCode();
+    }
+    
     @Override
     public JsonElement describe(Gson gson) {
         return gson.toJsonTree(expected);
@@ -0,0 +1,28 @@
+package com.streambase.sbunit.ext.matchers.value;
+
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.Timestamp;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+import com.streambase.sbunit.ext.ValueMatcher;
+
+/**
+ * A {@link ValueMatcher} which matches a single {@link Timestamp}, read with the
+ * typed getter.
+ */
+public class TimestampValueMatcher extends EqualsValueMatcher implements PrimitiveValueMatcher {
+    public TimestampValueMatcher(Timestamp expected) {
+        super(expected);
+    }
+    
+    @Override
+    public DataType getDataType() {
+        return DataType.TIMESTAMP;
+    }
+    
+    @Override
+    public boolean matchesField(Tuple t, Schema.Field f) throws TupleException {
+        return !t.isNull(f) && getExpected().equals(t.getTimestamp(f));
+    }
+}
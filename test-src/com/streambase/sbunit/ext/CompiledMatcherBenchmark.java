@@ -0,0 +1,104 @@
+package com.streambase.sbunit.ext;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+
+/**
+ * Times matching tuples against trees of matchers, either as they are or compiled
+ * with {@link Matchers#compile(TupleMatcher)}.  With a single tree every match goes
+ * through the same compiled tree, which the JIT can inline whole; with many trees
+ * the call into each tree is megamorphic.
+ * <p>
+ * Run each case in a JVM of its own, as <code>ant benchmark</code> does, so that one
+ * case's profile does not slow down the next:
+ * <pre>
+ * CompiledMatcherBenchmark &lt;plain|compiled&gt; &lt;trees&gt;
+ * </pre>
+ */
+public class CompiledMatcherBenchmark {
+    private static final int TUPLES = 1000;
+    private static final int ROUNDS = 5;
+    private static final int REPETITIONS = 2000;
+    private static final int LEAVES = 12;
+
+    /**
+     * a matcher of a class of its own, which compiling calls directly
+     */
+    public static class NotEqualMatcher implements TupleMatcher {
+        private final String field;
+        private final int value;
+
+        public NotEqualMatcher(String field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        @Override
+        public boolean matches(Tuple t) throws TupleException {
+            return t.getInt(field) != value;
+        }
+
+        @Override
+        public JsonElement describe(Gson gson) {
+            return null;
+        }
+    }
+
+    private static TupleMatcher tree(int k) {
+        TupleMatcher[] leaves = new TupleMatcher[LEAVES];
+        for (int i = 0; i < LEAVES; ++i) {
+            leaves[i] = Matchers.not(Matchers.not(new NotEqualMatcher("x", -1 - i - k)));
+        }
+        TupleMatcher fields = Matchers.emptyFieldMatcher()
+                .require("y", Matchers.anyOf(Matchers.literal(-k), Matchers.not(Matchers.literal(-1 - k))));
+        return Matchers.anyOf(
+                Matchers.allOf(fields, leaves),
+                Matchers.nothing());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 || !(args[0].equals("plain") || args[0].equals("compiled"))) {
+            System.err.println("usage: CompiledMatcherBenchmark <plain|compiled> <trees>");
+            System.exit(1);
+        }
+        boolean compiled = args[0].equals("compiled");
+        int trees = Integer.parseInt(args[1]);
+
+        TupleMatcher[] matchers = new TupleMatcher[trees];
+        for (int i = 0; i < trees; ++i) {
+            matchers[i] = compiled ? Matchers.compile(tree(i)) : tree(i);
+        }
+        Schema schema = new Schema(null,
+                Schema.createField(DataType.INT, "x"),
+                Schema.createField(DataType.INT, "y"));
+        Tuple[] tuples = new Tuple[TUPLES];
+        for (int i = 0; i < TUPLES; ++i) {
+            tuples[i] = schema.createTuple();
+            tuples[i].setInt("x", i);
+            tuples[i].setInt("y", i);
+        }
+
+        // the earlier rounds warm up the JIT
+        for (int round = 1; round <= ROUNDS; ++round) {
+            long matched = 0;
+            long start = System.nanoTime();
+            for (int r = 0; r < REPETITIONS; ++r) {
+                for (TupleMatcher m : matchers) {
+                    for (Tuple t : tuples) {
+                        if (m.matches(t)) {
+                            ++matched;
+                        }
+                    }
+                }
+            }
+            long finish = System.nanoTime();
+            double perMatch = (double) (finish - start) / ((long) REPETITIONS * trees * TUPLES);
+            System.out.printf("%s, %d trees, round %d: %.1f ns/match (%d matched)%n",
+                    args[0], trees, round, perMatch, matched);
+        }
+    }
+}
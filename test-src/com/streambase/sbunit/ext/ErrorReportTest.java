@@ -0,0 +1,86 @@
+package com.streambase.sbunit.ext;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.Tuple;
+import com.streambase.sbunit.ext.StreamMatcher.ExtraTuples;
+
+public class ErrorReportTest {
+    /**
+     * counts the tuples it formats
+     */
+    private static class CountingErrorReport extends BasicErrorReport {
+        private int formatted = 0;
+
+        CountingErrorReport(String header) {
+            super(header);
+        }
+
+        @Override
+        protected String formatTupleForMessage(Tuple t) {
+            ++formatted;
+            return "tuple";
+        }
+    }
+
+    @Test
+    public void testLongMessagesAreElided() throws Exception {
+        ErrorReport report = Reports.getBasicReportFactory(30).newErrorReport("header:");
+        for (int i = 0; i < 10; ++i) {
+            report.addMissingMatcher(Matchers.emptyFieldMatcher().require("x", i));
+        }
+        
+        ExpectTuplesFailure f = new ExpectTuplesFailure(report);
+        String expected = f.getExpected();
+        Assert.assertTrue(expected.startsWith("{\"x\":0}\n{\"x\":1}"));
+        Assert.assertTrue(expected.endsWith("... 6 more tuples elided"));
+        Assert.assertTrue(f.getMessage().endsWith("... 6 more tuples elided"));
+    }
+    
+    @Test
+    public void testMessagesAreRenderedLazily() throws Exception {
+        Schema schema = new Schema(null, Schema.createField(DataType.INT, "x"));
+        CountingErrorReport report = new CountingErrorReport("header:");
+        for (int i = 0; i < 3; ++i) {
+            Tuple t = schema.createTuple();
+            t.setInt("x", i);
+            report.addUnexpectedTuple(t);
+        }
+        
+        ExpectTuplesFailure f = new ExpectTuplesFailure(report);
+        Assert.assertEquals(0, report.formatted);
+        
+        String message = f.getMessage();
+        Assert.assertTrue(message.startsWith("header:"));
+        Assert.assertTrue(report.formatted > 0);
+        
+        // the messages are rendered once, then kept
+        Assert.assertEquals("tuple\ntuple\ntuple", f.getActual());
+        int formatted = report.formatted;
+        Assert.assertSame(message, f.getMessage());
+        f.getActual();
+        Assert.assertEquals(formatted, report.formatted);
+    }
+    
+    @Test
+    public void testHasErrors() throws Exception {
+        Schema schema = new Schema(null, Schema.createField(DataType.INT, "x"));
+        ErrorReport[] reports = {
+                Reports.getBasicReportFactory().newErrorReport("header:"),
+                Reports.getSpillingReportFactory().newErrorReport("header:")
+        };
+        for (ErrorReport report : reports) {
+            Assert.assertFalse(Reports.hasErrors(report, ExtraTuples.ERROR));
+            
+            report.addUnexpectedTuple(schema.createTuple());
+            Assert.assertFalse(Reports.hasErrors(report, ExtraTuples.IGNORE));
+            Assert.assertTrue(Reports.hasErrors(report, ExtraTuples.ERROR));
+            
+            report.addMissingMatcher(Matchers.emptyFieldMatcher().require("x", 1));
+            Assert.assertTrue(Reports.hasErrors(report, ExtraTuples.IGNORE));
+        }
+    }
+}
@@ -11,6 +11,7 @@ import com.streambase.sb.CompleteDataType;
 import com.streambase.sb.DataType;
 import com.streambase.sb.Schema;
 import com.streambase.sb.Tuple;
+import com.streambase.sbunit.ext.matchers.FieldBasedTupleMatcher;
 
 public class FieldBasedTupleMatcherTest {
     private Schema complex;
@@ -124,4 +125,108 @@ public class FieldBasedTupleMatcherTest {
         Assert.assertFalse(m2.matches(redJo));
         Assert.assertFalse(m2.matches(blueDave));
     }
+    
+    @Test
+    public void testSchemaChange() throws Exception {
+        // the same names at different positions
+        Schema swapped = new Schema(null,
+                Schema.createField(DataType.INT, "y"),
+                Schema.createField(DataType.INT, "x"));
+        Tuple other = swapped.createTuple();
+        other.setField("x", 2);
+        other.setField("y", 1);
+        
+        TupleMatcher m = Matchers.emptyFieldMatcher().require("x", 1);
+        Assert.assertTrue(m.matches(point(1, 2)));
+        Assert.assertFalse(m.matches(other));
+        Assert.assertTrue(m.matches(point(1, 3)));
+    }
+    
+    @Test
+    public void testGroupedSubFields() throws Exception {
+        TupleMatcher m = Matchers.emptyFieldMatcher()
+                .require("id.seq.num", 1L)
+                .require("color", "red")
+                .require("id.name", "jo")
+                .require("id.seq.prefix", "pre-");
+        for (int i = 0; i < 2; ++i) {
+            Assert.assertTrue(m.matches(redJo));
+            Assert.assertFalse(m.matches(blueDave));
+        }
+    }
+    
+    @Test
+    public void testPrimitiveFields() throws Exception {
+        TupleMatcher m = Matchers.emptyFieldMatcher()
+                .require("x", 1)
+                .require("y", 2);
+        Assert.assertTrue(m.matches(point(1, 2)));
+        Assert.assertFalse(m.matches(point(1, 3)));
+        Assert.assertFalse(m.matches(point(null, 2)));
+        
+        TupleMatcher seq = Matchers.emptyFieldMatcher()
+                .require("id.seq.num", 1L)
+                .require("id.seq.unique", false);
+        Assert.assertTrue(seq.matches(redJo));
+    }
+    
+    @Test
+    public void testReorderedChecks() throws Exception {
+        // enough tuples for the checks to be reordered several times
+        TupleMatcher m = Matchers.literal(redJo);
+        TupleMatcher name = Matchers.emptyFieldMatcher()
+                .require("id.seq.prefix", "pre-")
+                .require("id.name", "dave");
+        for (int i = 0; i < 10000; ++i) {
+            Assert.assertTrue(m.matches(redJo));
+            Assert.assertFalse(m.matches(blueDave));
+            Assert.assertFalse(name.matches(redJo));
+            Assert.assertTrue(name.matches(blueDave));
+        }
+    }
+    
+    @Test
+    public void testBuilder() throws Exception {
+        FieldBasedTupleMatcher.Builder b = FieldBasedTupleMatcher.builder()
+                .require("color", "red")
+                .require("id.name", "jo")
+                .requireNull("points");
+        FieldBasedTupleMatcher requiresNull = b.build();
+        FieldBasedTupleMatcher m = b.ignore("points").build();
+        Assert.assertTrue(m.matches(redJo));
+        Assert.assertFalse(m.matches(blueDave));
+        Assert.assertEquals(Arrays.asList("color", "id.name"),
+                Arrays.asList(m.getFieldMatchers().keySet().toArray()));
+        
+        // changing the builder leaves what it has built alone
+        Assert.assertFalse(requiresNull.matches(redJo));
+        b.require("color", "blue");
+        Assert.assertTrue(m.matches(redJo));
+        Assert.assertFalse(b.build().matches(redJo));
+        Assert.assertTrue(Matchers.literal(redJo).toBuilder().ignore("color").build().matches(
+                complex(Arrays.asList(point(1,2), point(3,4)), "green", "jo", "pre-", 1L, false)));
+    }
+    
+    @Test
+    public void testIgnorePatterns() throws Exception {
+        Tuple other = complex(
+                Arrays.asList(point(100,2), point(300,4)),
+                "red", "dave", "pre-", 2L, false);
+        TupleMatcher m = Matchers.literal(redJo)
+                .ignoreAll("points[*].x", "*.name", "**.num");
+        Assert.assertTrue(m.matches(other));
+        Assert.assertFalse(m.matches(blueDave));
+        
+        // a pattern may name a whole sub-tuple, or nothing at all
+        m = Matchers.literal(redJo).ignoreAll("id", "points.*", "color.missing", "color");
+        Assert.assertTrue(m.matches(other));
+        Assert.assertTrue(m.matches(blueDave));
+        
+        try {
+            Matchers.literal(redJo).ignoreAll("points[0].x");
+            Assert.fail("ignoreAll() should have failed");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
 }
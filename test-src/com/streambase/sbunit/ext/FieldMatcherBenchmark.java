@@ -0,0 +1,97 @@
+package com.streambase.sbunit.ext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.Tuple;
+
+/**
+ * Times matching tuples against field matchers on several threads at once, all of
+ * them sharing the statistics that order the matchers' checks, as they are when
+ * matching with {@link StreamMatcher#parallelism(int)}.
+ * <p>
+ * Run each case in a JVM of its own, as <code>ant benchmark</code> does:
+ * <pre>
+ * FieldMatcherBenchmark &lt;threads&gt;
+ * </pre>
+ */
+public class FieldMatcherBenchmark {
+    private static final int TUPLES = 1000;
+    private static final int MATCHERS = 64;
+    private static final int ROUNDS = 5;
+    private static final int REPETITIONS = 200;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("usage: FieldMatcherBenchmark <threads>");
+            System.exit(1);
+        }
+        int threads = Integer.parseInt(args[0]);
+
+        Schema schema = new Schema(null,
+                Schema.createField(DataType.INT, "id"),
+                Schema.createField(DataType.STRING, "name"),
+                Schema.createField(DataType.INT, "x"),
+                Schema.createField(DataType.INT, "y"));
+        final Tuple[] tuples = new Tuple[TUPLES];
+        for (int i = 0; i < TUPLES; ++i) {
+            tuples[i] = schema.createTuple();
+            tuples[i].setInt("id", i % MATCHERS);
+            tuples[i].setField("name", "name" + (i % 7));
+            tuples[i].setInt("x", i);
+            tuples[i].setInt("y", i % 3);
+        }
+        // the id, which rejects the most tuples, is checked last until reordered
+        final TupleMatcher[] matchers = new TupleMatcher[MATCHERS];
+        for (int i = 0; i < MATCHERS; ++i) {
+            matchers[i] = Matchers.emptyFieldMatcher()
+                    .require("name", "name" + (i % 7))
+                    .require("y", i % 3)
+                    .require("id", i);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // the earlier rounds warm up the JIT
+            for (int round = 1; round <= ROUNDS; ++round) {
+                List<Future<Long>> results = new ArrayList<Future<Long>>();
+                long start = System.nanoTime();
+                for (int th = 0; th < threads; ++th) {
+                    results.add(pool.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws Exception {
+                            long matched = 0;
+                            for (int r = 0; r < REPETITIONS; ++r) {
+                                for (TupleMatcher m : matchers) {
+                                    for (Tuple t : tuples) {
+                                        if (m.matches(t)) {
+                                            ++matched;
+                                        }
+                                    }
+                                }
+                            }
+                            return matched;
+                        }
+                    }));
+                }
+                long matched = 0;
+                for (Future<Long> f : results) {
+                    matched += f.get();
+                }
+                long finish = System.nanoTime();
+                // with no contention, this falls in proportion to the threads, up to the cores
+                double perMatch = (double) (finish - start) / ((long) threads * REPETITIONS * MATCHERS * TUPLES);
+                System.out.printf("%d threads, round %d: %.1f ns per match overall (%d matched)%n",
+                        threads, round, perMatch, matched);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.streambase.sbunit.ext;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testPercentiles() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long i = 1; i <= 1000; ++i) {
+            h.record(i * 1000);
+        }
+        Assert.assertEquals(1000, h.getCount());
+        Assert.assertEquals(1000, h.getMin());
+        Assert.assertEquals(1000000, h.getMax());
+        Assert.assertEquals(500500.0, h.getMean(), 0.001);
+        
+        // percentiles are within the precision of the buckets, and never understated
+        assertNear(500000, h.getValueAtPercentile(50));
+        assertNear(990000, h.getValueAtPercentile(99));
+        Assert.assertEquals(1000000, h.getValueAtPercentile(100));
+    }
+    
+    @Test
+    public void testSmallAndLargeValues() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(0);
+        h.record(7);
+        h.record(Long.MAX_VALUE);
+        Assert.assertEquals(0, h.getValueAtPercentile(0));
+        Assert.assertEquals(7, h.getValueAtPercentile(50));
+        Assert.assertEquals(Long.MAX_VALUE, h.getValueAtPercentile(100));
+    }
+    
+    private static void assertNear(long expected, long actual) {
+        Assert.assertTrue(actual + " is below " + expected, actual >= expected);
+        Assert.assertTrue(actual + " is not near " + expected, actual <= expected * 1.002);
+    }
+}
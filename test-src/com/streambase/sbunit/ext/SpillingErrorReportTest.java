@@ -0,0 +1,118 @@
+package com.streambase.sbunit.ext;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.streambase.sbunit.ext.StreamMatcher.ExtraTuples;
+
+public class SpillingErrorReportTest {
+    @Test
+    public void testSpilledEntriesAreReported() throws Exception {
+        ErrorReport report = Reports.getSpillingReportFactory(2).newErrorReport("header:");
+        for (int i = 0; i < 10; ++i) {
+            report.addMissingMatcher(Matchers.emptyFieldMatcher().require("x", i));
+        }
+        
+        // only the first and last 2 are kept in memory
+        Assert.assertEquals(4, report.getMissingMatchers().size());
+        Assert.assertEquals(10, ((SpillingErrorReport) report).getMissingCount());
+        
+        String expected = report.getExpectedMessage();
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertTrue(expected.contains("{\"x\":" + i + "}"));
+        }
+        Assert.assertEquals(10, expected.split("\n").length);
+        Assert.assertTrue(expected.indexOf("\"x\":3") < expected.indexOf("\"x\":4"));
+        
+        try {
+            report.throwIfError(ExtraTuples.IGNORE);
+            Assert.fail("missing matchers should be an error");
+        } catch (ExpectTuplesFailure f) {
+            Assert.assertTrue(f.getMessage().startsWith("header:\nMissing tuples:\n"));
+        }
+    }
+    
+    @Test
+    public void testSpillIsBoundedByTheMessageLimit() throws Exception {
+        final int[] formatted = new int[1];
+        SpillingErrorReport report = new SpillingErrorReport("header:", 1, 50) {
+            @Override
+            protected String formatMatcherForMessage(TupleMatcher m) {
+                ++formatted[0];
+                return super.formatMatcherForMessage(m);
+            }
+        };
+        for (int i = 0; i < 1000; ++i) {
+            report.addMissingMatcher(Matchers.emptyFieldMatcher().require("x", i));
+        }
+        
+        // only enough to fill a message is formatted and spilled
+        Assert.assertTrue(formatted[0] < 10);
+        Assert.assertEquals(1000, report.getMissingCount());
+        
+        String expected = report.getExpectedMessage();
+        Assert.assertTrue(expected.startsWith("{\"x\":0}\n{\"x\":1}"));
+        Assert.assertTrue(expected.endsWith("more tuples elided"));
+    }
+    
+    private static Set<String> spillFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("sbunit-report") && name.endsWith(".spill");
+            }
+        });
+        return new HashSet<String>(Arrays.asList(names));
+    }
+    
+    @Test
+    public void testSpillIsDeletedOnceRendered() throws Exception {
+        Set<String> before = spillFiles();
+        ErrorReport report = Reports.getSpillingReportFactory(1).newErrorReport("header:");
+        for (int i = 0; i < 10; ++i) {
+            report.addMissingMatcher(Matchers.emptyFieldMatcher().require("x", i));
+        }
+        Assert.assertEquals(before.size() + 1, spillFiles().size());
+        
+        try {
+            report.throwIfError(ExtraTuples.IGNORE);
+            Assert.fail("missing matchers should be an error");
+        } catch (ExpectTuplesFailure f) {
+            String expected = f.getExpected();
+            Assert.assertEquals(before, spillFiles());
+            for (int i = 0; i < 10; ++i) {
+                Assert.assertTrue(expected.contains("{\"x\":" + i + "}"));
+            }
+            // still rendered from the copy the failure holds
+            Assert.assertEquals(expected, f.getExpected());
+        }
+        
+        // the entries that were spilled are elided from anything rendered after closing
+        String after = report.getExpectedMessage();
+        Assert.assertTrue(after.startsWith("{\"x\":0}\n"));
+        Assert.assertTrue(after.endsWith("{\"x\":9}"));
+        Assert.assertTrue(after.contains("8 more tuples elided"));
+    }
+    
+    @Test
+    public void testSpillIsDeletedWhenThereIsNoError() throws Exception {
+        Set<String> before = spillFiles();
+        ErrorReport report = Reports.getSpillingReportFactory(1).newErrorReport("header:");
+        for (int i = 0; i < 10; ++i) {
+            report.addMissingMatcher(Matchers.emptyFieldMatcher().require("x", i));
+        }
+        ((SpillingErrorReport) report).close();
+        Assert.assertEquals(before, spillFiles());
+        
+        // nothing is spilled after closing
+        report.addMissingMatcher(Matchers.emptyFieldMatcher().require("x", 10));
+        Assert.assertEquals(before, spillFiles());
+        Assert.assertEquals(11, ((SpillingErrorReport) report).getMissingCount());
+    }
+}
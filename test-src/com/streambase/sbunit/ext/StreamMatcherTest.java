@@ -1,5 +1,14 @@
 package com.streambase.sbunit.ext;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.AfterClass;
@@ -8,6 +17,7 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.streambase.sb.Tuple;
 import com.streambase.sb.unittest.CSVTupleMaker;
 import com.streambase.sb.unittest.Dequeuer;
 import com.streambase.sb.unittest.Enqueuer;
@@ -132,4 +142,663 @@ public class StreamMatcherTest {
 			.require("y", 4);
         matcher.expectTuples(m1, m2, m1);
     }
+    
+    @Test
+    public void testExpectUnorderedMixedMatchers() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .ordering(Ordering.UNORDERED)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "5,6", "1,2", "3,4", "1,2");
+        
+        // literal matchers are indexed, the others are checked against every tuple
+        matcher.expectTuples(
+                Matchers.emptyFieldMatcher().require("x", 1).require("y", 2),
+                Matchers.anything(),
+                Matchers.emptyFieldMatcher().require("x", 3).require("y", 4),
+                Matchers.emptyFieldMatcher().require("x", 1).require("y", 2));
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2", "7,8");
+        try {
+            matcher.expectTuples(
+                    Matchers.emptyFieldMatcher().require("x", 1).require("y", 2),
+                    Matchers.emptyFieldMatcher().require("x", 7).require("y", 9));
+            Assert.fail("expectTuples() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(1, report.getMissingMatchers().size());
+            Assert.assertEquals(1, report.getUnexpectedTuples().size());
+            Assert.assertEquals(1, report.getFoundTuples().size());
+        }
+    }
+    
+    @Test
+    public void testExpectOverlappingMatchers() throws Exception {
+        TupleMatcher wildcard = Matchers.emptyFieldMatcher().require("y", Matchers.isNonNull());
+        TupleMatcher specific = Matchers.emptyFieldMatcher().require("x", 1).require("y", 2);
+        
+        StreamMatcher greedy = StreamMatcher.on(dequeuer)
+                .ordering(Ordering.UNORDERED)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2", "3,4");
+        try {
+            greedy.expectTuples(wildcard, specific);
+            Assert.fail("the first tuple should have been given to the wildcard");
+        } catch (ExpectTuplesFailure f) {
+            Assert.assertEquals(1, f.getReport().getMissingMatchers().size());
+        }
+        
+        StreamMatcher maximal = greedy.ordering(Ordering.UNORDERED_MAXIMAL);
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2", "3,4");
+        maximal.expectTuples(wildcard, specific);
+    }
+
+    @Test
+    public void testExpectDuplicateMatchers() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .ordering(Ordering.UNORDERED)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        // equal matchers share one slot in the unordered search
+        Assert.assertEquals(heartbeat(), heartbeat());
+        Assert.assertEquals(heartbeat().hashCode(), heartbeat().hashCode());
+
+        String[] tuples = new String[101];
+        List<TupleMatcher> expected = new ArrayList<TupleMatcher>();
+        for (int i = 0; i < 100; ++i) {
+            tuples[i] = "0,0";
+            expected.add(heartbeat());
+        }
+        tuples[50] = "1,2";
+        tuples[100] = "0,0";
+        expected.add(Matchers.emptyFieldMatcher().require("x", 1).require("y", 2));
+        enqueuer.enqueue(CSVTupleMaker.MAKER, tuples);
+        matcher.expectTuples(expected);
+
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "0,0", "1,2");
+        try {
+            matcher.expectTuples(heartbeat(), heartbeat(), heartbeat());
+            Assert.fail("expectTuples() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(2, report.getMissingMatchers().size());
+            Assert.assertEquals(1, report.getUnexpectedTuples().size());
+            Assert.assertEquals(1, report.getFoundTuples().size());
+        }
+    }
+
+    private static TupleMatcher heartbeat() {
+        return Matchers.emptyFieldMatcher().require("x", 0).require("y", 0);
+    }
+    
+    @Test
+    public void testQuiescenceTimeout() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .onExtra(ExtraTuples.IGNORE)
+                .quiescenceTimeout(10, TimeUnit.SECONDS);
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2", "3,4");
+        long start = System.currentTimeMillis();
+        try {
+            matcher.expectTuples(
+                    Matchers.emptyFieldMatcher().require("x", 1),
+                    Matchers.emptyFieldMatcher().require("x", 3),
+                    Matchers.emptyFieldMatcher().require("x", 5));
+            Assert.fail("expectTuples() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(1, report.getMissingMatchers().size());
+            Assert.assertEquals(2, report.getFoundTuples().size());
+        }
+        long finish = System.currentTimeMillis();
+        Assert.assertTrue("expectTuples() should stop once the stream is quiet", 
+                finish - start < TimeUnit.SECONDS.toMillis(10));
+        
+        start = System.currentTimeMillis();
+        matcher.expectNothing();
+        finish = System.currentTimeMillis();
+        Assert.assertTrue("expectNothing() should stop once the stream is quiet", 
+                finish - start < TimeUnit.SECONDS.toMillis(10));
+    }
+    
+    @Test
+    public void testPrefetching() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .prefetching(4);
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,1", "2,2", "3,3", "4,4", "5,5", "6,6", "7,7");
+        matcher.expectTuples(
+                Matchers.emptyFieldMatcher().require("x", 1),
+                Matchers.emptyFieldMatcher().require("x", 2),
+                Matchers.emptyFieldMatcher().require("x", 3),
+                Matchers.emptyFieldMatcher().require("x", 4),
+                Matchers.emptyFieldMatcher().require("x", 5),
+                Matchers.emptyFieldMatcher().require("x", 6));
+        
+        // the last tuple must be left for the next call
+        matcher.expectTuples(Matchers.emptyFieldMatcher().require("x", 7));
+    }
+    
+    @Test
+    public void testOnAll() throws Exception {
+        MultiStreamMatcher matcher = StreamMatcher.onAll(
+                StreamMatcher.on(dequeuer).timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2");
+        matcher.expect(dequeuer, Matchers.emptyFieldMatcher().require("x", 1)).verify();
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2");
+        try {
+            matcher.expect(dequeuer, Matchers.emptyFieldMatcher().require("x", 3)).verify();
+            Assert.fail("verify() should have failed");
+        } catch (MultiStreamFailure f) {
+            CompositeErrorReport reports = f.getReports();
+            Assert.assertEquals(1, reports.getReports().size());
+            Assert.assertEquals(1, reports.getMissingMatchers().size());
+            Assert.assertEquals(1, reports.getUnexpectedTuples().size());
+            Assert.assertSame(reports.getReports().get(0), f.getReport());
+            Assert.assertEquals(reports.getMessage(), f.getMessage());
+        }
+    }
+    
+    @Test
+    public void testParallelism() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .ordering(Ordering.UNORDERED)
+                .parallelism(4);
+        
+        int num = 2000;
+        List<TupleMatcher> expected = new ArrayList<TupleMatcher>();
+        String[] csv = new String[num];
+        for (int i = 0; i < num; ++i) {
+            // not indexable, so every tuple is checked against every remaining matcher
+            expected.add(Matchers.emptyFieldMatcher().require("y", Matchers.not(Matchers.literal(-i))));
+            csv[i] = i + "," + i;
+        }
+        enqueuer.enqueue(CSVTupleMaker.MAKER, csv);
+        matcher.expectTuples(expected);
+        
+        // a failure is reported the same way as it is when matching on one thread
+        StreamMatcher sequential = StreamMatcher.on(dequeuer)
+                .ordering(Ordering.UNORDERED)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        String expectedMessage = parallelismFailure(sequential);
+        Assert.assertEquals(expectedMessage, parallelismFailure(sequential.parallelism(4)));
+    }
+    
+    private static String parallelismFailure(StreamMatcher matcher) throws Exception {
+        int num = 500;
+        List<TupleMatcher> expected = new ArrayList<TupleMatcher>();
+        for (int i = 0; i < num + 5; ++i) {
+            // not indexable, and matching only x == i
+            expected.add(Matchers.emptyFieldMatcher().require("x", 
+                    Matchers.anyOf(Matchers.literal(i), Matchers.literal(i))));
+        }
+        String[] csv = new String[num + 5];
+        for (int i = 0; i < num; ++i) {
+            csv[i] = i + "," + i;
+        }
+        for (int i = num; i < num + 5; ++i) {
+            csv[i] = -i + "," + i;
+        }
+        enqueuer.enqueue(CSVTupleMaker.MAKER, csv);
+        try {
+            matcher.expectTuples(expected);
+            Assert.fail("expectTuples() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(5, report.getMissingMatchers().size());
+            Assert.assertEquals(5, report.getUnexpectedTuples().size());
+            return f.getMessage();
+        }
+        return null;
+    }
+    
+    @Test
+    public void testLatencyTracker() throws Exception {
+        LatencyTracker tracker = StreamMatcher.on(dequeuer)
+                .timeout(1, TimeUnit.SECONDS)
+                .latencyTracker(enqueuer, "x");
+        tracker.start();
+        try {
+            for (int i = 0; i < 100; ++i) {
+                Tuple t = enqueuer.getSchema().createTuple();
+                t.setInt("y", i);
+                tracker.enqueue(t);
+            }
+            tracker.expectLatency(99, 1, TimeUnit.SECONDS);
+            Assert.assertEquals(100, tracker.getHistogram().getCount());
+            Assert.assertEquals(0, tracker.getPendingCount());
+            
+            try {
+                tracker.expectLatency(50, 0, TimeUnit.NANOSECONDS);
+                Assert.fail("no application is that fast");
+            } catch (AssertionError e) {
+                // expected
+            }
+        } finally {
+            tracker.stop();
+        }
+    }
+    
+    @Test
+    public void testExpectThroughput() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .warmup(50);
+        
+        final String[] csv = new String[200];
+        for (int i = 0; i < csv.length; ++i) {
+            csv[i] = i + "," + i;
+        }
+        // tuples must arrive over time for a rate to mean anything
+        Thread paced = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (String line : csv) {
+                        enqueuer.enqueue(CSVTupleMaker.MAKER, line);
+                        Thread.sleep(1);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        paced.start();
+        double rate = matcher.expectThroughput(150, 1);
+        paced.join();
+        Assert.assertFalse(Double.isInfinite(rate));
+        Assert.assertTrue(rate >= 1);
+        
+        // tuples already queued arrive together
+        enqueuer.enqueue(CSVTupleMaker.MAKER, csv);
+        try {
+            matcher.expectThroughput(150, 1);
+            Assert.fail("expectThroughput() should have failed");
+        } catch (AssertionError e) {
+            Assert.assertTrue(e.getMessage().contains("too close together to measure"));
+        }
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, csv);
+        try {
+            matcher.expectThroughput(200, 1);
+            Assert.fail("expectThroughput() should have failed");
+        } catch (AssertionError e) {
+            Assert.assertTrue(e.getMessage().contains("only 150 tuples arrived"));
+        }
+    }
+    
+    @Test
+    public void testExpectThroughputForbidding() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .forbidding(Matchers.emptyFieldMatcher().require("y", 9));
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,1", "2,9", "3,3");
+        try {
+            matcher.expectThroughput(3, 0);
+            Assert.fail("expectThroughput() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(1, report.getUnexpectedTuples().size());
+            Assert.assertEquals(2, report.getUnexpectedTuples().get(0).getInt("x"));
+        }
+    }
+    
+    @Test
+    public void testPrometheusMatchListener() throws Exception {
+        File file = File.createTempFile("sbunit", ".prom");
+        file.deleteOnExit();
+        PrometheusMatchListener listener = new PrometheusMatchListener(file);
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .listening(listener);
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2", "3,4");
+        matcher.expectTuples(
+                Matchers.emptyFieldMatcher().require("x", 1),
+                Matchers.emptyFieldMatcher().require("x", 3));
+        
+        String path = dequeuer.getStreamProperties().getPath();
+        String metrics = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+        Assert.assertTrue(metrics, metrics.contains("sbunit_evaluated_tuples_total{stream=\"" + path + "\"} 2\n"));
+        Assert.assertTrue(metrics, metrics.contains("sbunit_matcher_invocations_total{stream=\"" + path + "\"} 2\n"));
+        Assert.assertTrue(metrics, metrics.contains("sbunit_expect_calls_total{stream=\"" + path + "\"} 1\n"));
+        
+        // every kind of expect call is counted
+        matcher.expectNothing();
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2", "3,4");
+        try {
+            matcher.expectThroughput(2, 0);
+        } catch (AssertionError e) {
+            // queued tuples cannot be timed, but the call is counted all the same
+            Assert.assertTrue(e.getMessage().contains("too close together to measure"));
+        }
+        metrics = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+        Assert.assertTrue(metrics, metrics.contains("sbunit_expect_calls_total{stream=\"" + path + "\"} 3\n"));
+    }
+    
+    @Test
+    public void testPrometheusMatchListenerUnwritable() throws Exception {
+        File dir = Files.createTempDirectory("sbunit").toFile();
+        dir.deleteOnExit();
+        // a file in a directory that does not exist cannot be written
+        PrometheusMatchListener listener = new PrometheusMatchListener(new File(new File(dir, "missing"), "sbunit.prom"));
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .listening(listener);
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2");
+        matcher.expectTuples(Matchers.emptyFieldMatcher().require("x", 1));
+        try {
+            listener.write();
+            Assert.fail("write() should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+    
+    @Test
+    public void testReorderWindow() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer).reorderWindow(2);
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "2,2", "1,1", "4,4", "3,3");
+        matcher.expectTuples(
+                Matchers.emptyFieldMatcher().require("x", 1),
+                Matchers.emptyFieldMatcher().require("x", 2),
+                Matchers.emptyFieldMatcher().require("x", 3),
+                Matchers.emptyFieldMatcher().require("x", 4));
+        
+        // 3 is two places early
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "3,3", "1,1", "2,2");
+        try {
+            matcher.expectTuples(
+                    Matchers.emptyFieldMatcher().require("x", 1),
+                    Matchers.emptyFieldMatcher().require("x", 2),
+                    Matchers.emptyFieldMatcher().require("x", 3));
+            Assert.fail("expectTuples() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(1, report.getMissingMatchers().size());
+            Assert.assertEquals(1, report.getUnexpectedTuples().size());
+            Assert.assertEquals(2, report.getFoundTuples().size());
+        }
+    }
+    
+    @Test
+    public void testOrderingPerKey() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer).orderingPerKey("x");
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,1", "2,1", "1,2", "2,2");
+        matcher.expectTuples(
+                Matchers.emptyFieldMatcher().require("x", 1).require("y", 1),
+                Matchers.emptyFieldMatcher().require("x", 1).require("y", 2),
+                Matchers.emptyFieldMatcher().require("x", 2).require("y", 1),
+                Matchers.emptyFieldMatcher().require("x", 2).require("y", 2));
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2", "1,1");
+        try {
+            matcher.expectTuples(
+                    Matchers.emptyFieldMatcher().require("x", 1).require("y", 1),
+                    Matchers.emptyFieldMatcher().require("x", 1).require("y", 2));
+            Assert.fail("expectTuples() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(2, report.getMissingMatchers().size());
+            Assert.assertEquals(2, report.getUnexpectedTuples().size());
+        }
+        
+        try {
+            matcher.expectTuples(Matchers.anything());
+            Assert.fail("matchers without a key should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompiledMatchers() throws Exception {
+        StreamMatcher perKey = StreamMatcher.on(dequeuer).orderingPerKey("x");
+
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,1", "2,1", "1,2");
+        perKey.expectTuples(
+                Matchers.compile(Matchers.emptyFieldMatcher().require("x", 1).require("y", 1)),
+                Matchers.compile(Matchers.emptyFieldMatcher().require("x", 1).require("y", 2)),
+                Matchers.compile(Matchers.emptyFieldMatcher().require("x", 2).require("y", 1)));
+
+        StreamMatcher unordered = StreamMatcher.on(dequeuer)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .ordering(Ordering.UNORDERED);
+
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "3,3", "1,1", "2,2");
+        unordered.expectTuples(
+                Matchers.compile(Matchers.emptyFieldMatcher().require("x", 1)),
+                Matchers.compile(Matchers.emptyFieldMatcher().require("x", 2)),
+                Matchers.compile(Matchers.emptyFieldMatcher().require("x", 3)));
+
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,1", "4,4");
+        try {
+            unordered.expectTuples(
+                    Matchers.compile(Matchers.emptyFieldMatcher().require("x", 1)),
+                    Matchers.compile(Matchers.emptyFieldMatcher().require("x", 2)));
+            Assert.fail("expectTuples() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(1, report.getMissingMatchers().size());
+            Assert.assertEquals(1, report.getUnexpectedTuples().size());
+            Assert.assertEquals(4, report.getUnexpectedTuples().get(0).getInt("x"));
+        }
+    }
+
+    @Test
+    public void testForbidding() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .onExtra(ExtraTuples.IGNORE)
+                .forbidding(Matchers.emptyFieldMatcher().require("y", 9));
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,1", "3,3", "2,2");
+        matcher.expectTuples(
+                Matchers.emptyFieldMatcher().require("x", 1),
+                Matchers.emptyFieldMatcher().require("x", 2));
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,1", "3,9", "2,2");
+        try {
+            matcher.expectTuples(
+                    Matchers.emptyFieldMatcher().require("x", 1),
+                    Matchers.emptyFieldMatcher().require("x", 2));
+            Assert.fail("expectTuples() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(1, report.getUnexpectedTuples().size());
+            Assert.assertEquals(3, report.getUnexpectedTuples().get(0).getInt("x"));
+        }
+    }
+    
+    @Test
+    public void testForbiddingFailsImmediately() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .timeout(10, TimeUnit.SECONDS)
+                .forbidding(Matchers.emptyFieldMatcher().require("y", 9));
+        
+        // the expected tuple never arrives, so only the forbidden one can end the call
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "3,9");
+        long start = System.currentTimeMillis();
+        try {
+            matcher.expectTuples(Matchers.emptyFieldMatcher().require("x", 1));
+            Assert.fail("expectTuples() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(1, report.getUnexpectedTuples().size());
+            Assert.assertEquals(3, report.getUnexpectedTuples().get(0).getInt("x"));
+        }
+        long finish = System.currentTimeMillis();
+        Assert.assertTrue("a forbidden tuple should fail without waiting for the timeout", 
+                finish - start < TimeUnit.SECONDS.toMillis(5));
+    }
+    
+    @Test
+    public void testCaptureAndReplay() throws Exception {
+        File file = File.createTempFile("sbunit", ".capture");
+        file.deleteOnExit();
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .capturing(file);
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2", "3,4");
+        matcher.expectTuples(
+                Matchers.emptyFieldMatcher().require("x", 1),
+                Matchers.emptyFieldMatcher().require("x", 3));
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "5,6");
+        matcher.expectTuples(Matchers.emptyFieldMatcher().require("x", 5));
+        
+        ReplayDequeuer replay = new ReplayDequeuer(file);
+        try {
+            Assert.assertEquals(dequeuer.getStreamProperties().getPath(), 
+                    replay.getStreamProperties().getPath());
+            StreamMatcher.on(replay)
+                    .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .expectTuples(
+                            Matchers.emptyFieldMatcher().require("x", 1).require("y", 2),
+                            Matchers.emptyFieldMatcher().require("x", 3).require("y", 4),
+                            Matchers.emptyFieldMatcher().require("x", 5).require("y", 6));
+            Assert.assertTrue(replay.getLastArrivalMillis() > 0);
+        } finally {
+            replay.close();
+        }
+    }
+    
+    @Test
+    public void testReplayUnclosedCapture() throws Exception {
+        File file = File.createTempFile("sbunit", ".capture");
+        file.deleteOnExit();
+        String path = dequeuer.getStreamProperties().getPath();
+        Tuple t = dequeuer.getStreamProperties().getSchema().createTuple();
+        
+        TupleCapture capture = new TupleCapture(file, path);
+        t.setInt("x", 1);
+        t.setInt("y", 2);
+        capture.write(t, 1);
+        capture.close();
+        // a capture that is never closed ends in the zeros of its mapped region
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.setLength(raw.length() + 4096);
+        } finally {
+            raw.close();
+        }
+        
+        ReplayDequeuer replay = new ReplayDequeuer(file);
+        try {
+            StreamMatcher.on(replay)
+                    .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .expectTuples(Matchers.emptyFieldMatcher().require("x", 1).require("y", 2));
+        } finally {
+            replay.close();
+        }
+        
+        // appending overwrites the zeros rather than following them
+        capture = new TupleCapture(file, path);
+        t.setInt("x", 3);
+        t.setInt("y", 4);
+        capture.write(t, 2);
+        capture.close();
+        
+        replay = new ReplayDequeuer(file);
+        try {
+            StreamMatcher.on(replay)
+                    .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .expectTuples(
+                            Matchers.emptyFieldMatcher().require("x", 1).require("y", 2),
+                            Matchers.emptyFieldMatcher().require("x", 3).require("y", 4));
+        } finally {
+            replay.close();
+        }
+    }
+    
+    @Test
+    public void testExpectTuplesIterator() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        
+        // more than one window's worth, made as they are needed
+        final int num = StreamMatcher.STREAMING_WINDOW + 100;
+        String[] csv = new String[num];
+        for (int i = 0; i < num; ++i) {
+            csv[i] = i + "," + i;
+        }
+        enqueuer.enqueue(CSVTupleMaker.MAKER, csv);
+        matcher.expectTuples(new Iterator<TupleMatcher>() {
+            private int i = 0;
+            
+            @Override
+            public boolean hasNext() {
+                return i < num;
+            }
+            
+            @Override
+            public TupleMatcher next() {
+                return Matchers.emptyFieldMatcher().require("x", i++);
+            }
+            
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        });
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,1", "3,3");
+        List<TupleMatcher> expected = new ArrayList<TupleMatcher>();
+        for (int i = 1; i <= 3; ++i) {
+            expected.add(Matchers.emptyFieldMatcher().require("x", i));
+        }
+        try {
+            matcher.expectTuples(expected.iterator());
+            Assert.fail("expectTuples() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(2, report.getMissingMatchers().size());
+            Assert.assertEquals(1, report.getUnexpectedTuples().size());
+            Assert.assertEquals(0, report.getFoundTuples().size());
+        }
+        
+        // only the first failures are kept, the rest are counted
+        expected.clear();
+        for (int i = 0; i < StreamMatcher.MAX_STREAMING_FAILURES + 50; ++i) {
+            expected.add(Matchers.emptyFieldMatcher().require("x", i));
+        }
+        try {
+            matcher.expectTuples(expected.iterator());
+            Assert.fail("expectTuples() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(StreamMatcher.MAX_STREAMING_FAILURES, report.getMissingMatchers().size());
+            Assert.assertTrue(report.getMessage().contains(
+                    "first " + StreamMatcher.MAX_STREAMING_FAILURES + " of "
+                    + (StreamMatcher.MAX_STREAMING_FAILURES + 50) + " missing tuples shown"));
+        }
+    }
+    
+    @Test
+    public void testExpectTuplesAsync() throws Exception {
+        StreamMatcher matcher = StreamMatcher.on(dequeuer)
+                .timeout(1, TimeUnit.SECONDS);
+        
+        // start verifying before the tuples are enqueued
+        CompletableFuture<ErrorReport> future = matcher.expectTuplesAsync(
+                Matchers.emptyFieldMatcher().require("x", 1),
+                Matchers.emptyFieldMatcher().require("x", 3));
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "1,2", "3,4");
+        Assert.assertEquals(2, future.get().getFoundTuples().size());
+        
+        enqueuer.enqueue(CSVTupleMaker.MAKER, "5,6");
+        try {
+            matcher.timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS).expectNothingAsync().get();
+            Assert.fail("expectNothingAsync() should have failed");
+        } catch (ExecutionException e) {
+            ErrorReport report = ((ExpectTuplesFailure) e.getCause()).getReport();
+            Assert.assertEquals(1, report.getUnexpectedTuples().size());
+        }
+    }
 }
@@ -0,0 +1,307 @@
+package com.streambase.sbunit.ext;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.streambase.sb.DataType;
+import com.streambase.sb.Schema;
+import com.streambase.sb.StreamBaseException;
+import com.streambase.sb.StreamProperties;
+import com.streambase.sb.Tuple;
+import com.streambase.sb.TupleException;
+import com.streambase.sb.unittest.Dequeuer;
+import com.streambase.sbunit.ext.StreamMatcher.ExtraTuples;
+import com.streambase.sbunit.ext.StreamMatcher.Ordering;
+
+public class StreamVerifierTest {
+    private static final int TEST_TIMEOUT_MS = 50;
+
+    /**
+     * a {@link Dequeuer} of tuples the test adds, so that the verifier can be run
+     * without a server.
+     */
+    private class QueueDequeuer implements Dequeuer {
+        private final LinkedList<Tuple> queue = new LinkedList<Tuple>();
+
+        synchronized void add(Tuple... tuples) {
+            for (Tuple t : tuples) {
+                queue.add(t);
+            }
+            notifyAll();
+        }
+
+        synchronized boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        @Override
+        public List<Tuple> dequeue(int n) throws StreamBaseException {
+            return dequeue(n, DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT);
+        }
+
+        @Override
+        public synchronized List<Tuple> dequeue(int n, long timeout, TimeUnit unit) throws StreamBaseException {
+            if (queue.isEmpty()) {
+                try {
+                    unit.timedWait(this, timeout);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new StreamBaseException(e);
+                }
+            }
+            List<Tuple> res = new ArrayList<Tuple>();
+            while (!queue.isEmpty() && (n < 0 || res.size() < n)) {
+                res.add(queue.remove());
+            }
+            return res;
+        }
+
+        @Override
+        public synchronized List<Tuple> drain() throws StreamBaseException {
+            List<Tuple> res = new ArrayList<Tuple>(queue);
+            queue.clear();
+            return res;
+        }
+
+        @Override
+        public StreamProperties getStreamProperties() {
+            return new StreamProperties() {
+                @Override
+                public String getPath() {
+                    return "OutputStream";
+                }
+
+                @Override
+                public Schema getSchema() {
+                    return point;
+                }
+            };
+        }
+    }
+
+    private static class ThrowingMatcher implements TupleMatcher {
+        @Override
+        public boolean matches(Tuple t) throws TupleException {
+            throw new IllegalStateException("broken matcher");
+        }
+
+        @Override
+        public JsonElement describe(Gson gson) {
+            return null;
+        }
+    }
+
+    private Schema point;
+    private QueueDequeuer dequeuer;
+    private StreamVerifier verifier;
+
+    @Before
+    public void createDequeuer() {
+        point = new Schema(null,
+                Schema.createField(DataType.INT, "x"),
+                Schema.createField(DataType.INT, "y"));
+        dequeuer = new QueueDequeuer();
+    }
+
+    @After
+    public void stopVerifier() throws Exception {
+        if (verifier != null) {
+            verifier.stop();
+            verifier = null;
+        }
+    }
+
+    private StreamVerifier start(Ordering ordering, ExtraTuples extras, int maxOutstanding) {
+        verifier = StreamMatcher.on(dequeuer)
+                .ordering(ordering)
+                .onExtra(extras)
+                .timeout(TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .verifier(maxOutstanding);
+        verifier.start();
+        return verifier;
+    }
+
+    private Tuple make(int x) throws TupleException {
+        Tuple t = point.createTuple();
+        t.setInt("x", x);
+        return t;
+    }
+
+    private static TupleMatcher x(int x) {
+        return Matchers.emptyFieldMatcher().require("x", Matchers.literal(x));
+    }
+
+    private void awaitDequeued() throws InterruptedException {
+        while (!dequeuer.isEmpty()) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testMatchUnordered() throws Exception {
+        StreamVerifier v = start(Ordering.UNORDERED, ExtraTuples.ERROR, 10);
+        v.expect(x(1), x(2), x(3));
+        dequeuer.add(make(3), make(1), make(2));
+        v.verify();
+        Assert.assertEquals(3, v.getMatchedCount());
+        Assert.assertEquals(0, v.getOutstandingCount());
+        Assert.assertFalse(v.isFailed());
+    }
+
+    @Test
+    public void testMatchOrdered() throws Exception {
+        StreamVerifier v = start(Ordering.ORDERED, ExtraTuples.ERROR, 10);
+        v.expect(x(1), x(2));
+        dequeuer.add(make(1), make(2));
+        v.verify();
+        Assert.assertEquals(2, v.getMatchedCount());
+    }
+
+    @Test
+    public void testMoreExpectationsThanSlots() throws Exception {
+        // enough expectations that the verifier has to compact and re-index them
+        StreamVerifier v = start(Ordering.UNORDERED, ExtraTuples.ERROR, 1000);
+        for (int i = 0; i < 100; ++i) {
+            v.expect(x(i));
+        }
+        for (int i = 99; i >= 0; --i) {
+            dequeuer.add(make(i));
+        }
+        v.verify();
+        Assert.assertEquals(100, v.getMatchedCount());
+    }
+
+    @Test
+    public void testMiss() throws Exception {
+        StreamVerifier v = start(Ordering.UNORDERED, ExtraTuples.ERROR, 10);
+        v.expect(x(1), x(2));
+        dequeuer.add(make(1));
+        long start = System.currentTimeMillis();
+        try {
+            v.verify();
+            Assert.fail("verify() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(1, report.getMissingMatchers().size());
+            Assert.assertEquals(0, report.getUnexpectedTuples().size());
+        }
+        long finish = System.currentTimeMillis();
+        Assert.assertTrue("verify() waits for the timeout", finish - start >= TEST_TIMEOUT_MS);
+        Assert.assertEquals(1, v.getMatchedCount());
+        Assert.assertEquals(1, v.getFailureCount());
+    }
+
+    @Test
+    public void testOrderedMismatch() throws Exception {
+        StreamVerifier v = start(Ordering.ORDERED, ExtraTuples.ERROR, 10);
+        v.expect(x(1), x(2));
+        dequeuer.add(make(2), make(1));
+        try {
+            v.verify();
+            Assert.fail("verify() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            Assert.assertFalse(f.getReport().getMissingMatchers().isEmpty());
+            Assert.assertFalse(f.getReport().getUnexpectedTuples().isEmpty());
+        }
+    }
+
+    @Test
+    public void testUnexpectedTuple() throws Exception {
+        StreamVerifier v = start(Ordering.UNORDERED, ExtraTuples.ERROR, 10);
+        v.expect(x(1));
+        dequeuer.add(make(1), make(7));
+        try {
+            v.verify();
+            Assert.fail("verify() should have failed");
+        } catch (ExpectTuplesFailure f) {
+            ErrorReport report = f.getReport();
+            Assert.assertEquals(0, report.getMissingMatchers().size());
+            Assert.assertEquals(1, report.getUnexpectedTuples().size());
+            Assert.assertEquals(7, report.getUnexpectedTuples().get(0).getInt("x"));
+        }
+    }
+
+    @Test
+    public void testUnexpectedTupleIgnored() throws Exception {
+        StreamVerifier v = start(Ordering.UNORDERED, ExtraTuples.IGNORE, 10);
+        v.expect(x(1));
+        dequeuer.add(make(7), make(1));
+        v.verify();
+        Assert.assertEquals(1, v.getMatchedCount());
+    }
+
+    @Test
+    public void testTupleBeforeExpectation() throws Exception {
+        StreamVerifier v = start(Ordering.UNORDERED, ExtraTuples.ERROR, 10);
+        dequeuer.add(make(1));
+        awaitDequeued();
+        v.expect(x(1));
+        v.verify();
+        Assert.assertEquals(1, v.getMatchedCount());
+    }
+
+    @Test
+    public void testTupleBeforeExpectationOrdered() throws Exception {
+        StreamVerifier v = start(Ordering.ORDERED, ExtraTuples.ERROR, 10);
+        dequeuer.add(make(1), make(2));
+        awaitDequeued();
+        v.expect(x(1), x(2));
+        v.verify();
+        Assert.assertEquals(2, v.getMatchedCount());
+    }
+
+    @Test
+    public void testThrowingMatcher() throws Exception {
+        StreamVerifier v = start(Ordering.UNORDERED, ExtraTuples.ERROR, 1);
+        v.expect(new ThrowingMatcher());
+        dequeuer.add(make(1));
+        try {
+            v.verify();
+            Assert.fail("verify() should have failed");
+        } catch (StreamBaseException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertTrue(v.isFailed());
+
+        // the verifier is full, but expect() must not wait for a thread that has died
+        v.expect(x(2));
+        try {
+            v.check();
+            Assert.fail("check() should have failed");
+        } catch (StreamBaseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testVerifyAfterStop() throws Exception {
+        // a timeout long enough that the expectation is still outstanding when stopped
+        verifier = StreamMatcher.on(dequeuer)
+                .timeout(10, TimeUnit.SECONDS)
+                .verifier(10);
+        verifier.start();
+        StreamVerifier v = verifier;
+        v.expect(x(1));
+        v.stop();
+        try {
+            v.verify();
+            Assert.fail("verify() should have failed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnsupportedOrdering() throws Exception {
+        StreamMatcher.on(dequeuer).ordering(Ordering.UNORDERED_MAXIMAL).verifier(10);
+    }
+}
@@ -91,5 +91,29 @@ public class TupleMatcherTest {
         Assert.assertFalse(Matchers.not(mod2).matches(make(4)));
     }
     
+    @Test
+    public void testCompile() throws Exception {
+        TupleMatcher mod2 = new ModulusMatcher(2, "x");
+        TupleMatcher mod3 = new ModulusMatcher(3, "x");
+        TupleMatcher mod5 = new ModulusMatcher(5, "x");
+        TupleMatcher fields = Matchers.emptyFieldMatcher()
+                .require("x", Matchers.anyOf(Matchers.literal(7), Matchers.not(Matchers.literal(30))))
+                .require("y", Matchers.isNull());
+        TupleMatcher m = Matchers.anyOf(
+                Matchers.allOf(mod2, Matchers.not(mod3), fields),
+                Matchers.allOf(Matchers.anything(), mod5, Matchers.not(mod2)),
+                Matchers.nothing());
+        TupleMatcher compiled = Matchers.compile(m);
+        
+        for (int x = 0; x < 100; ++x) {
+            Assert.assertEquals("x = " + x, m.matches(make(x)), compiled.matches(make(x)));
+        }
+        
+        Gson gson = new Gson();
+        Assert.assertEquals(gson.toJson(fields.describe(gson)),
+                gson.toJson(Matchers.compile(fields).describe(gson)));
+        Assert.assertSame(compiled, Matchers.compile(compiled));
+    }
+    
     
 }
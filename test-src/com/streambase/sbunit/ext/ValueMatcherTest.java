@@ -10,8 +10,11 @@ import com.google.gson.JsonElement;
 import com.streambase.sb.TupleException;
 import com.streambase.sbunit.ext.matchers.AnythingMatcher;
 import com.streambase.sbunit.ext.matchers.NothingMatcher;
+import com.streambase.sbunit.ext.matchers.value.BooleanValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.DifferenceTestDoubleValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.EqualsValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.IntValueMatcher;
+import com.streambase.sbunit.ext.matchers.value.LongValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.NonNullValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.NullValueMatcher;
 import com.streambase.sbunit.ext.matchers.value.RatioTestDoubleValueMatcher;
@@ -54,6 +57,22 @@ public class ValueMatcherTest {
         Assert.assertTrue(new EqualsValueMatcher(new Integer(1024)).matches(new Integer(1024)));
     }
     
+    @Test
+    public void testPrimitiveMatchers() throws Exception {
+        Assert.assertTrue(Matchers.literal(1024) instanceof IntValueMatcher);
+        Assert.assertTrue(Matchers.literal(1024L) instanceof LongValueMatcher);
+        Assert.assertTrue(Matchers.literal(true) instanceof BooleanValueMatcher);
+        
+        Assert.assertTrue(new IntValueMatcher(1024).matches(1024));
+        Assert.assertFalse(new IntValueMatcher(1024).matches(1025));
+        Assert.assertFalse(new IntValueMatcher(1024).matches(1024L));
+        Assert.assertFalse(new IntValueMatcher(1024).matches(null));
+        Assert.assertTrue(new LongValueMatcher(1024L).matches(1024L));
+        Assert.assertFalse(new LongValueMatcher(1024L).matches(1024));
+        Assert.assertTrue(new BooleanValueMatcher(false).matches(false));
+        Assert.assertFalse(new BooleanValueMatcher(false).matches(true));
+    }
+    
     @Test
     public void testDoubleMatchers() throws Exception {
         double big = 123456789;
@@ -169,5 +188,22 @@ public class ValueMatcherTest {
                 Arrays.asList(1)));
     }
     
+    @Test
+    public void testEquality() throws Exception {
+        Assert.assertEquals(Matchers.literal(1), new IntValueMatcher(1));
+        Assert.assertFalse(Matchers.literal(1).equals(Matchers.literal(2)));
+        Assert.assertFalse(Matchers.literal(1).equals(new EqualsValueMatcher(1)));
+        Assert.assertEquals(new NullValueMatcher(), Matchers.isNull());
+        Assert.assertFalse(Matchers.isNull().equals(Matchers.isNonNull()));
+        Assert.assertEquals(new RatioTestDoubleValueMatcher(1.0, 0.1), new RatioTestDoubleValueMatcher(1.0, 0.1));
+        Assert.assertFalse(new RatioTestDoubleValueMatcher(1.0, 0.1).equals(new RatioTestDoubleValueMatcher(1.0, 0.2)));
+        
+        ValueMatcher a = Matchers.anyOf(Matchers.list(1, "a"), Matchers.not(Matchers.isNull()));
+        ValueMatcher b = Matchers.anyOf(Matchers.list(1, "a"), Matchers.not(Matchers.isNull()));
+        Assert.assertEquals(a, b);
+        Assert.assertEquals(a.hashCode(), b.hashCode());
+        Assert.assertFalse(a.equals(Matchers.allOf(Matchers.list(1, "a"), Matchers.not(Matchers.isNull()))));
+        Assert.assertFalse(a.equals(Matchers.anyOf(Matchers.list(1, "b"), Matchers.not(Matchers.isNull()))));
+    }
     
 }